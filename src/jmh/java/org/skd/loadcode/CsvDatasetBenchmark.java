@@ -0,0 +1,59 @@
+package org.skd.loadcode;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * getNextRow throughput per storage and distribution, run at several thread counts to expose contention.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CsvDatasetBenchmark {
+
+    @Param({"MAPS", "PACKED"})
+    public CsvDataset.Storage storage;
+
+    @Param({"SHARED", "PARTITIONED", "RANDOM"})
+    public CsvDataset.Distribution distribution;
+
+    private File file;
+    private CsvDataset dataset;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("loadcode-bench", ".csv");
+        try (PrintWriter writer = new PrintWriter(file)) {
+            writer.println("id,username,password,email");
+            for (int i = 0; i < 100_000; i++) {
+                writer.println(i + ",user" + i + ",secret" + i + ",user" + i + "@example.com");
+            }
+        }
+        dataset = new CsvDataset(file.getPath(), 1, true, false, ",", storage)
+                .setDistribution(distribution)
+                .setPartitions(64);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public Map<String, String> getNextRow() {
+        return dataset.getNextRow();
+    }
+
+    @Benchmark
+    public String getNextRowAndReadColumn() {
+        return dataset.getNextRow().get("username");
+    }
+}
@@ -0,0 +1,81 @@
+package org.skd.loadcode;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-iteration cost of the harness itself: picking a scenario, calling it and recording its latency,
+ * with a scenario that does nothing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DispatchBenchmark {
+
+    public static class NoOpTest {
+        public void testScenario(LoadTestExecutor tgroup) {
+        }
+    }
+
+    private final AtomicInteger slots = new AtomicInteger();
+    private final LoadTestExecutor executor = new LoadTestExecutor();
+    private ScenarioMix<LoadTestExecutor> single;
+    private ScenarioMix<LoadTestExecutor> mix;
+    private NoOpTest instance;
+    private Method method;
+    private Scenario<LoadTestExecutor> bound;
+
+    @Setup
+    public void setup() throws Exception {
+        single = new ScenarioMix<>();
+        single.add("noop", tgroup -> { }, 1);
+        mix = new ScenarioMix<>();
+        mix.add("browse", tgroup -> { }, 70);
+        mix.add("search", tgroup -> { }, 25);
+        mix.add("checkout", tgroup -> { }, 5);
+
+        instance = new NoOpTest();
+        method = NoOpTest.class.getMethod("testScenario", LoadTestExecutor.class);
+        bound = Scenario.bind(instance, method, LoadTestExecutor.class);
+    }
+
+    @State(Scope.Thread)
+    public static class User {
+        ScenarioMix<LoadTestExecutor>.User single;
+        ScenarioMix<LoadTestExecutor>.User mix;
+
+        @Setup
+        public void setup(DispatchBenchmark benchmark) {
+            int slot = benchmark.slots.getAndIncrement();
+            single = benchmark.single.user(slot);
+            mix = benchmark.mix.user(slot);
+        }
+    }
+
+    @Benchmark
+    public Object singleScenarioIteration(User user) throws Exception {
+        return user.single.run(executor, System.nanoTime());
+    }
+
+    @Benchmark
+    public Object weightedMixIteration(User user) throws Exception {
+        return user.mix.run(executor, System.nanoTime());
+    }
+
+    // How test methods were called before they were bound to Scenario
+    @Benchmark
+    public Object methodInvoke() throws Exception {
+        return method.invoke(instance, executor);
+    }
+
+    @Benchmark
+    public void boundScenario() throws Exception {
+        bound.run(executor);
+    }
+}
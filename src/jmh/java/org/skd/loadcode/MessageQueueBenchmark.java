@@ -0,0 +1,51 @@
+package org.skd.loadcode;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Insert, claim and ack round trip of one message, and a claim on an empty topic, per queue backend.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MessageQueueBenchmark {
+
+    @Param({"h2", "memory"})
+    public String backend;
+
+    private MessageQueue queue;
+
+    @Setup
+    public void setup() {
+        queue = backend.equals("h2")
+                ? new H2MessageQueue("jdbc:h2:mem:loadcode-bench;DB_CLOSE_DELAY=-1", "sa", "", 64)
+                : new InMemoryMessageQueue(1 << 20);
+    }
+
+    @TearDown
+    public void tearDown() {
+        queue.close();
+    }
+
+    // What an idle poller pays per attempt
+    @Benchmark
+    public int claimEmpty() {
+        return queue.claim("bench_empty", 1).size();
+    }
+
+    @Benchmark
+    public int roundTrip() {
+        queue.insert("bench_round_trip", "payload");
+        List<QueueMessage> claimed = queue.claim("bench_round_trip", 1);
+        for (QueueMessage message : claimed) {
+            queue.ack("bench_round_trip", message.getId());
+        }
+        return claimed.size();
+    }
+}
@@ -0,0 +1,95 @@
+package org.skd.loadcode;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delete and reset on an H2 topic holding 100k to 1M messages. By id the cost stays flat as the
+ * table grows, by data every call is a full scan. Deletes re-insert the message, so the size holds.
+ * Each benchmark thread picks from its own slice of the messages, so it can run at any thread count.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class MessageQueueScalingBenchmark {
+    private static final String TOPIC = "bench_scaling";
+
+    @Param({"100000", "500000", "1000000"})
+    public int messages;
+
+    private H2MessageQueue queue;
+    private long[] ids;
+    private String[] data;
+
+    /**
+     * The thread's own random and slice of the messages, so no two threads update the same id.
+     */
+    @State(Scope.Thread)
+    public static class Slice {
+        private SplittableRandom random;
+        private int from;
+        private int size;
+
+        @Setup
+        public void setup(MessageQueueScalingBenchmark benchmark, ThreadParams thread) {
+            random = new SplittableRandom(42 + thread.getThreadIndex());
+            size = benchmark.messages / thread.getThreadCount();
+            from = thread.getThreadIndex() * size;
+        }
+
+        int next() {
+            return from + random.nextInt(size);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        queue = new H2MessageQueue("jdbc:h2:mem:loadcode-scaling;DB_CLOSE_DELAY=-1", "sa", "", 4);
+        ids = new long[messages];
+        data = new String[messages];
+        List<String> batch = new ArrayList<>(10_000);
+        for (int i = 0; i < messages; i += batch.size()) {
+            batch.clear();
+            for (int j = i; j < Math.min(messages, i + 10_000); j++) {
+                data[j] = "message-" + j;
+                batch.add(data[j]);
+            }
+            List<Long> inserted = queue.bulkInsert(TOPIC, batch);
+            for (int j = 0; j < inserted.size(); j++) {
+                ids[i + j] = inserted.get(j);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        queue.close(); // every fork starts with a new in-memory database
+    }
+
+    @Benchmark
+    public void resetById(Slice slice) {
+        queue.reset(TOPIC, ids[slice.next()]);
+    }
+
+    @Benchmark
+    public long deleteById(Slice slice) {
+        int i = slice.next();
+        queue.delete(TOPIC, ids[i]);
+        return ids[i] = queue.insert(TOPIC, data[i]);
+    }
+
+    @Benchmark
+    public long deleteByData(Slice slice) {
+        int i = slice.next();
+        queue.delete(TOPIC, data[i]);
+        return ids[i] = queue.insert(TOPIC, data[i]);
+    }
+}
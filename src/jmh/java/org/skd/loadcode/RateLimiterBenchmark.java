@@ -0,0 +1,43 @@
+package org.skd.loadcode;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of pacing when the limiter never has to wait, i.e. the overhead added to every iteration,
+ * and the cost of contending on one shared limiter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RateLimiterBenchmark {
+
+    private final RateLimiter unlimited = new RateLimiter(1e12, 1_000_000);
+    private final RPMTimer rpmTimer = new RPMTimer(6e13);
+    private final RateLimiter saturated = new RateLimiter(1000);
+
+    @Benchmark
+    public void acquire() {
+        unlimited.acquire();
+    }
+
+    @Benchmark
+    public boolean tryAcquire() {
+        return unlimited.tryAcquire();
+    }
+
+    @Benchmark
+    public void rpmTimerSleep() {
+        rpmTimer.sleep();
+    }
+
+    // Every thread is refused, measures the CAS loop on an exhausted bucket
+    @Benchmark
+    public boolean tryAcquireExhausted() {
+        return saturated.tryAcquire();
+    }
+}
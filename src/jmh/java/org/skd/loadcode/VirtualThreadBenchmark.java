@@ -0,0 +1,95 @@
+package org.skd.loadcode;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to run a batch of blocking users on platform versus virtual threads.
+ * Each user does 10 iterations of a 10ms sleep, as a stand-in for a blocking call.
+ * Virtual falls back to platform threads below Java 21.
+ * Besides the time, each batch reports the RSS it added while all its users were alive and the context
+ * switches it caused, from /proc on Linux (0 elsewhere). Context switches are counted machine wide, so run
+ * on an otherwise idle box. Allocation per batch comes with -prof gc (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xss256k")
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Threads(1)
+public class VirtualThreadBenchmark {
+
+    @Param({"1000", "10000", "50000"})
+    public int users;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    private ThreadFactory factory;
+
+    /**
+     * Resource use reported next to the time. JMH sums these over the measured iterations,
+     * so divide by the iteration count for one batch.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Resources {
+        public long rssKb; // RSS growth from before the batch to when all its users have started
+        public long contextSwitches; // voluntary and involuntary, all CPUs
+
+        @Setup(Level.Iteration)
+        public void clean() {
+            rssKb = 0;
+            contextSwitches = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        factory = threads.equals("virtual") ? VirtualThreads.factory("bench-vu-") : Executors.defaultThreadFactory();
+    }
+
+    @Benchmark
+    public void runUsers(Resources resources) throws InterruptedException {
+        long rssBefore = procValue("/proc/self/status", "VmRSS:");
+        long switchesBefore = procValue("/proc/stat", "ctxt");
+        CountDownLatch done = new CountDownLatch(users);
+        for (int i = 0; i < users; i++) {
+            factory.newThread(() -> {
+                try {
+                    for (int iteration = 0; iteration < 10; iteration++) {
+                        Thread.sleep(10);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }).start();
+        }
+        resources.rssKb += procValue("/proc/self/status", "VmRSS:") - rssBefore;
+        done.await();
+        resources.contextSwitches += procValue("/proc/stat", "ctxt") - switchesBefore;
+    }
+
+    // First number on the line of a /proc file starting with the key, 0 if there is none
+    private static long procValue(String file, String key) {
+        try {
+            for (String line : Files.readAllLines(Paths.get(file))) {
+                if (line.startsWith(key)) {
+                    return Long.parseLong(line.substring(key.length()).trim().split("\\s+")[0]);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // not Linux
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,52 @@
+package org.skd.loadcode;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A load test iteration that completes asynchronously, e.g. a request on a non-blocking client:
+ * <pre>
+ * new LoadTestExecutor().addAsyncTest(tgroup -&gt; client.sendAsync(request));
+ * </pre>
+ * The iteration ends when the returned stage completes, not when the method returns,
+ * so a few threads can keep many iterations in flight.
+ */
+@FunctionalInterface
+public interface AsyncScenario<E> {
+
+    CompletionStage<?> run(E executor) throws Exception;
+
+    /**
+     * Binds a test method returning a {@link CompletionStage} to its instance, like {@link Scenario#bind}.
+     */
+    @SuppressWarnings("unchecked")
+    static <E> AsyncScenario<E> bind(Object instance, Method method, Class<E> executorType) throws IllegalAccessException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle target = lookup.unreflect(method);
+        try {
+            CallSite site = LambdaMetafactory.metafactory(lookup, "run",
+                    MethodType.methodType(AsyncScenario.class, method.getDeclaringClass()),
+                    MethodType.methodType(CompletionStage.class, Object.class),
+                    target,
+                    MethodType.methodType(method.getReturnType(), executorType));
+            return (AsyncScenario<E>) site.getTarget().invoke(instance);
+        } catch (Throwable e) {
+            // The generated class cannot see the test class (e.g. another class loader), use the handle directly
+            MethodHandle bound = target.bindTo(instance).asType(MethodType.methodType(CompletionStage.class, Object.class));
+            return executor -> {
+                try {
+                    return (CompletionStage<?>) bound.invokeExact((Object) executor);
+                } catch (Exception | Error failure) {
+                    throw failure;
+                } catch (Throwable failure) {
+                    throw new RuntimeException(failure);
+                }
+            };
+        }
+    }
+}
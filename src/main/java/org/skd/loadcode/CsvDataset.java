@@ -2,30 +2,86 @@ package org.skd.loadcode;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 public class CsvDataset {
-    private final List<Map<String, String>> dataRows; // List of rows (each row is a Map of columnName -> value)
-    private final AtomicInteger currentIndex = new AtomicInteger(0);
+
+    /**
+     * How rows are held in memory.
+     * MAPS keeps one mutable HashMap per row (the original behaviour).
+     * PACKED parses once into a single byte buffer with per-cell offsets and returns {@link CsvRow} views.
+     * MAPPED memory-maps the file and keeps only row offsets on the heap, for files larger than the heap.
+     */
+    public enum Storage {
+        MAPS,
+        PACKED,
+        MAPPED
+    }
+
+    /**
+     * How rows are handed out to threads.
+     * SHARED walks all threads through the rows with one lock-free cursor (the default).
+     * PARTITIONED splits the rows into slices with a cursor each and spreads the threads over the slices,
+     * so rows stay unique across threads while threads of different slices never touch the same cursor.
+     * With fewer threads than slices, threads move on to slices nobody reads, so the whole file is still used.
+     * RANDOM picks rows at random per thread from a seeded generator.
+     * UNIQUE hands out each row once across the whole run and throws {@link NoSuchElementException} when exhausted.
+     */
+    public enum Distribution {
+        SHARED,
+        PARTITIONED,
+        RANDOM,
+        UNIQUE
+    }
+
+    private volatile List<Map<String, String>> dataRows; // List of rows (each row is a Map of columnName -> value)
+    private final List<Map<String, String>> fileRows; // as loaded, in file order
+    private final AtomicLong currentIndex = new AtomicLong(0);
     private final int batchSize;
     private final boolean loop;
     private final boolean shuffle;
     private final String delimiter;
 
-    // Main constructor with configurable delimiter
-    public CsvDataset(String filePath, int batchSize, boolean loop, boolean shuffle, String delimiter) throws IOException {
-        this.dataRows = loadCsv(filePath, delimiter);
+    private Distribution distribution = Distribution.SHARED;
+    private static final int CURSOR_STRIDE = 8; // longs per cache line, so slice cursors do not share one
+    private int partitions = 0; // 0 means one per available processor
+    private volatile AtomicLongArray partitionCursors; // created on first use, replaced to start over
+    private long seed = 42;
+    private final AtomicInteger threadSequence = new AtomicInteger(0);
+    private final ThreadLocal<ThreadCursor> threadCursor = ThreadLocal.withInitial(() -> new ThreadCursor(threadSequence.getAndIncrement()));
+    private final Map<List<String>, String[]> projections = new ConcurrentHashMap<>();
+
+    // Main constructor with configurable delimiter and storage
+    public CsvDataset(String filePath, int batchSize, boolean loop, boolean shuffle, String delimiter, Storage storage) throws IOException {
+        switch (storage) {
+            case PACKED:
+                this.dataRows = PackedCsvTable.load(filePath, delimiter);
+                break;
+            case MAPPED:
+                this.dataRows = MappedCsvTable.load(filePath, delimiter);
+                break;
+            default:
+                this.dataRows = loadCsv(filePath, delimiter);
+        }
+        this.fileRows = dataRows;
         this.batchSize = batchSize;
         this.loop = loop;
         this.shuffle = shuffle;
         this.delimiter = delimiter;
 
         if (shuffle) {
-            Collections.shuffle(dataRows); // Randomize order if required
+            shuffleRows(); // Randomize order if required
         }
     }
 
+    // Constructor with configurable delimiter and the default MAPS storage
+    public CsvDataset(String filePath, int batchSize, boolean loop, boolean shuffle, String delimiter) throws IOException {
+        this(filePath, batchSize, loop, shuffle, delimiter, Storage.MAPS);
+    }
+
     // Constructor with default delimiter (",")
     public CsvDataset(String filePath, int batchSize, boolean loop, boolean shuffle) throws IOException {
         this(filePath, batchSize, loop, shuffle, ",");
@@ -36,19 +92,77 @@ public class CsvDataset {
         this(filePath, 1, loop, false, ",");
     }
 
+    public CsvDataset setDistribution(Distribution distribution) {
+        this.distribution = distribution;
+        return this;
+    }
+
+    /**
+     * Number of slices for {@link Distribution#PARTITIONED}, one per available processor by default.
+     * Normally the number of threads, so each thread has a slice to itself. With more threads than
+     * slices, threads share a slice's cursor and still never get the same row; with fewer, threads
+     * move on to the slices nobody reads.
+     */
+    public synchronized CsvDataset setPartitions(int partitions) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("Partitions must be at least 1.");
+        }
+        this.partitions = partitions;
+        this.partitionCursors = null;
+        return this;
+    }
+
+    /**
+     * Seed for {@link Distribution#RANDOM}; each thread derives its own generator from it.
+     */
+    public CsvDataset setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Keeps only one worker's share of the file when a test runs on several JVMs
+     * ({@link DistributedWorker}), so no two workers ever use the same row:
+     * {@code setWorkerPartition(worker.getIndex(), worker.getCount())}.
+     * Shares are cut from the file order, then shuffled if enabled, and the distribution applies within the share.
+     */
+    public synchronized CsvDataset setWorkerPartition(int worker, int workers) {
+        if (workers < 1 || worker < 0 || worker >= workers) {
+            throw new IllegalArgumentException("Worker must be between 0 and workers - 1.");
+        }
+        int total = (fileRows instanceof CsvTable) ? ((CsvTable) fileRows).rowCount() : fileRows.size();
+        int from = (int) ((long) total * worker / workers);
+        int to = (int) ((long) total * (worker + 1) / workers);
+        if (fileRows instanceof CsvTable) {
+            ((CsvTable) fileRows).restrict(from, to);
+        } else {
+            dataRows = new ArrayList<>(fileRows.subList(from, to));
+        }
+        if (shuffle) {
+            shuffleRows();
+        }
+        currentIndex.set(0);
+        partitionCursors = null;
+        return this;
+    }
+
+    public int size() {
+        return dataRows.size();
+    }
+
     private List<Map<String, String>> loadCsv(String filePath, String delimiter) throws IOException {
         List<Map<String, String>> rows = new ArrayList<>();
         try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            String[] headers = br.readLine().split(delimiter); // Read header row
+            String[] headers = CsvTable.parseHeaders(br.readLine(), delimiter); // Read header row once
 
             String line;
             while ((line = br.readLine()) != null) {
-                String[] values = line.split(delimiter);
+                String[] values = CsvTable.split(line, delimiter);
                 if (values.length != headers.length) continue; // Skip invalid rows
 
-                Map<String, String> row = new HashMap<>();
+                Map<String, String> row = new HashMap<>(headers.length * 2);
                 for (int i = 0; i < headers.length; i++) {
-                    row.put(headers[i].trim(), values[i].trim());
+                    row.put(headers[i], values[i].trim());
                 }
                 rows.add(row);
             }
@@ -56,47 +170,254 @@ public class CsvDataset {
         return rows;
     }
 
-    public synchronized List<Map<String, String>> getNextBatch() {
-        if (dataRows.isEmpty()) return Collections.emptyList();
+    public List<Map<String, String>> getNextBatch() {
+        List<Map<String, String>> rows = dataRows;
+        if (rows.isEmpty()) return Collections.emptyList();
 
-        int startIdx = currentIndex.getAndAdd(batchSize);
-        int endIdx = Math.min(startIdx + batchSize, dataRows.size());
-
-        if (startIdx >= dataRows.size()) {
-            if (loop) {
-                currentIndex.set(0);
-                return getNextBatch(); // Restart from beginning
-            } else {
-                return Collections.emptyList(); // No more data
+        switch (distribution) {
+            case PARTITIONED:
+                return nextPartitionBatch(rows);
+            case RANDOM:
+                return threadCursor.get().nextRandomBatch(rows);
+            case UNIQUE: {
+                long startIdx = currentIndex.getAndAdd(batchSize);
+                if (startIdx >= rows.size()) {
+                    throw new NoSuchElementException("CSV dataset exhausted: all " + rows.size() + " rows have been used.");
+                }
+                return rows.subList((int) startIdx, (int) Math.min(startIdx + batchSize, rows.size()));
             }
+            default:
+                return slice(rows, currentIndex.getAndAdd(batchSize), 0, rows.size());
         }
-
-        return dataRows.subList(startIdx, endIdx);
     }
 
-    public synchronized Map<String, String> getNextRow() {
+    public Map<String, String> getNextRow() {
         List<Map<String, String>> batch = getNextBatch();
         return batch.isEmpty() ? null : batch.get(0);
     }
 
-    // Column filtering support
-    public synchronized List<Map<String, String>> getNextBatch(List<String> columns) {
-        return getNextBatch().stream()
-                .map(row -> row.entrySet().stream()
-                        .filter(entry -> columns.contains(entry.getKey()))
-                        .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)))
-                .collect(Collectors.toList());
+    // Column filtering support, the projection is computed once per column list
+    public List<Map<String, String>> getNextBatch(List<String> columns) {
+        String[] projection = projection(columns);
+        List<Map<String, String>> batch = getNextBatch();
+        List<Map<String, String>> projected = new ArrayList<>(batch.size());
+        for (Map<String, String> row : batch) {
+            projected.add(new ProjectedRow(row, projection));
+        }
+        return projected;
     }
 
-    public synchronized Map<String, String> getNextRow(List<String> columns) {
+    public Map<String, String> getNextRow(List<String> columns) {
         List<Map<String, String>> batch = getNextBatch(columns);
         return batch.isEmpty() ? null : batch.get(0);
     }
 
+    private String[] projection(List<String> columns) {
+        String[] projection = projections.get(columns);
+        if (projection == null) {
+            List<Map<String, String>> rows = dataRows;
+            Map<String, String> first = rows.isEmpty() ? Collections.emptyMap() : rows.get(0);
+            projection = columns.stream().filter(first::containsKey).distinct().toArray(String[]::new);
+            projections.putIfAbsent(new ArrayList<>(columns), projection);
+        }
+        return projection;
+    }
+
+    /**
+     * Batch starting at the given cursor position within rows [from, to).
+     * With loop enabled positions wrap around, so every batch is full; otherwise an empty list marks the end.
+     */
+    private List<Map<String, String>> slice(List<Map<String, String>> rows, long position, int from, int to) {
+        int length = to - from;
+        if (length <= 0) return Collections.emptyList();
+
+        if (!loop) {
+            if (position >= length) return Collections.emptyList(); // No more data
+            return rows.subList(from + (int) position, from + (int) Math.min(position + batchSize, length));
+        }
+
+        int startIdx = (int) (position % length);
+        if (startIdx + batchSize <= length) {
+            return rows.subList(from + startIdx, from + startIdx + batchSize);
+        }
+        int count = Math.min(batchSize, length);
+        List<Map<String, String>> batch = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            batch.add(rows.get(from + (startIdx + i) % length));
+        }
+        return batch;
+    }
+
+    /**
+     * Next batch of the calling thread's slice. Threads start on the slices in the order they first ask,
+     * and the threads of a slice share its cursor. So that every slice is read with fewer threads than
+     * slices, a thread moves on once its slice is used up, or when looping, once it has finished a pass
+     * of its slice while another slice is a full pass behind.
+     */
+    private List<Map<String, String>> nextPartitionBatch(List<Map<String, String>> rows) {
+        AtomicLongArray cursors = partitionCursors();
+        int count = cursors.length() / CURSOR_STRIDE;
+        ThreadCursor cursor = threadCursor.get();
+        if (cursor.cursors != cursors) { // first batch, or the dataset started over
+            cursor.cursors = cursors;
+            cursor.partition = cursor.index % count;
+        }
+        for (int tries = 0; tries < count; tries++) {
+            int partition = cursor.partition;
+            int from = sliceStart(rows.size(), partition, count);
+            int length = sliceStart(rows.size(), partition + 1, count) - from;
+            if (length == 0) { // fewer rows than slices
+                cursor.partition = (partition + 1) % count;
+                continue;
+            }
+            long position = cursors.getAndAdd(partition * CURSOR_STRIDE, batchSize);
+            if (loop) {
+                long next = position + batchSize;
+                if (next / length > position / length) {
+                    cursor.partition = laggingSlice(cursors, rows.size(), partition, next - length);
+                }
+                return slice(rows, position, from, from + length);
+            }
+            if (position < length) {
+                return slice(rows, position, from, from + length);
+            }
+            cursor.partition = (partition + 1) % count; // used up, help with the next slice
+        }
+        return Collections.emptyList();
+    }
+
+    private static int sliceStart(int rows, int partition, int count) {
+        return (int) ((long) rows * partition / count);
+    }
+
+    // The least read non-empty slice if its cursor is at or below the given position, otherwise the current one
+    private static int laggingSlice(AtomicLongArray cursors, int rows, int current, long behind) {
+        int count = cursors.length() / CURSOR_STRIDE;
+        int lagging = current;
+        long lowest = behind + 1;
+        for (int i = 0; i < count; i++) {
+            long position = cursors.get(i * CURSOR_STRIDE);
+            if (position < lowest && sliceStart(rows, i + 1, count) > sliceStart(rows, i, count)) {
+                lowest = position;
+                lagging = i;
+            }
+        }
+        return lagging;
+    }
+
+    private AtomicLongArray partitionCursors() {
+        AtomicLongArray cursors = partitionCursors;
+        if (cursors == null) {
+            synchronized (this) {
+                if (partitionCursors == null) {
+                    int count = (partitions > 0) ? partitions : Runtime.getRuntime().availableProcessors();
+                    partitionCursors = new AtomicLongArray(count * CURSOR_STRIDE);
+                }
+                cursors = partitionCursors;
+            }
+        }
+        return cursors;
+    }
+
     public synchronized void reset() {
-        currentIndex.set(0);
         if (shuffle) {
-            Collections.shuffle(dataRows);
+            shuffleRows();
+        }
+        currentIndex.set(0);
+        partitionCursors = null;
+    }
+
+    private void shuffleRows() {
+        if (dataRows instanceof CsvTable) {
+            ((CsvTable) dataRows).shuffle(); // views are read-only, shuffle the row order instead
+        } else {
+            List<Map<String, String>> shuffled = new ArrayList<>(dataRows);
+            Collections.shuffle(shuffled);
+            dataRows = shuffled; // readers keep using the previous list until they pick up the new one
+        }
+    }
+
+    /**
+     * Per-thread state for the PARTITIONED and RANDOM distributions, never shared between threads.
+     */
+    private final class ThreadCursor {
+        private final int index;
+        private final SplittableRandom random;
+        private AtomicLongArray cursors; // slice cursors the partition below belongs to
+        private int partition;
+
+        ThreadCursor(int index) {
+            this.index = index;
+            this.random = new SplittableRandom(seed + index * 0x9E3779B97F4A7C15L);
+        }
+
+        List<Map<String, String>> nextRandomBatch(List<Map<String, String>> rows) {
+            if (batchSize == 1) {
+                return Collections.singletonList(rows.get(random.nextInt(rows.size())));
+            }
+            List<Map<String, String>> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize; i++) {
+                batch.add(rows.get(random.nextInt(rows.size())));
+            }
+            return batch;
+        }
+    }
+
+    /**
+     * Read-only view of a row restricted to a precomputed set of columns.
+     */
+    private static final class ProjectedRow extends AbstractMap<String, String> {
+        private final Map<String, String> row;
+        private final String[] columns;
+
+        ProjectedRow(Map<String, String> row, String[] columns) {
+            this.row = row;
+            this.columns = columns;
+        }
+
+        @Override
+        public String get(Object key) {
+            for (String column : columns) {
+                if (column.equals(key)) return row.get(column);
+            }
+            return null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            for (String column : columns) {
+                if (column.equals(key)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<Entry<String, String>>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new Iterator<Entry<String, String>>() {
+                        private int next = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < columns.length;
+                        }
+
+                        @Override
+                        public Entry<String, String> next() {
+                            if (!hasNext()) throw new NoSuchElementException();
+                            String column = columns[next++];
+                            return new SimpleImmutableEntry<>(column, row.get(column));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return columns.length;
+                }
+            };
         }
     }
 
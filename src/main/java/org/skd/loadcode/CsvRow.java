@@ -0,0 +1,95 @@
+package org.skd.loadcode;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Lightweight read-only view of one CSV row. Values are decoded from the shared storage on access,
+ * and the row can be used as a {@code Map<String, String>} or through the typed accessors.
+ */
+public class CsvRow extends AbstractMap<String, String> {
+    private final CsvTable table;
+    private final int row;
+
+    CsvRow(CsvTable table, int row) {
+        this.table = table;
+        this.row = row;
+    }
+
+    public String get(int column) {
+        return table.value(row, column);
+    }
+
+    @Override
+    public String get(Object column) {
+        int index = table.columnIndex(column);
+        return index < 0 ? null : table.value(row, index);
+    }
+
+    public int getInt(String column) {
+        return Integer.parseInt(require(column));
+    }
+
+    public long getLong(String column) {
+        return Long.parseLong(require(column));
+    }
+
+    public double getDouble(String column) {
+        return Double.parseDouble(require(column));
+    }
+
+    public boolean getBoolean(String column) {
+        return Boolean.parseBoolean(require(column));
+    }
+
+    private String require(String column) {
+        String value = get(column);
+        if (value == null) {
+            throw new IllegalArgumentException("Unknown column: " + column);
+        }
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(Object column) {
+        return table.columnIndex(column) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return table.headers().length;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<Entry<String, String>>() {
+                    private int column = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return column < table.headers().length;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        String key = table.headers()[column];
+                        return new SimpleImmutableEntry<>(key, table.value(row, column++));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return table.headers().length;
+            }
+        };
+    }
+}
@@ -0,0 +1,115 @@
+package org.skd.loadcode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compact, read-only CSV storage. Headers are kept once and rows are handed out as
+ * {@link CsvRow} views instead of one HashMap per row.
+ */
+abstract class CsvTable extends AbstractList<Map<String, String>> implements RandomAccess {
+    private final String[] headers;
+    private final Map<String, Integer> columnIndex = new HashMap<>();
+    private volatile int[] order; // row permutation after shuffling, null keeps file order
+    private volatile int first = 0; // first file row handed out, see restrict
+    private volatile int count = -1; // rows handed out, -1 for all
+
+    CsvTable(String[] headers) {
+        this.headers = headers;
+        for (int i = 0; i < headers.length; i++) {
+            columnIndex.put(headers[i], i);
+        }
+    }
+
+    abstract int rowCount();
+
+    /**
+     * Trimmed value of a cell, by row index in file order.
+     */
+    abstract String value(int row, int column);
+
+    String[] headers() {
+        return headers;
+    }
+
+    int columnIndex(Object name) {
+        Integer index = columnIndex.get(name);
+        return index == null ? -1 : index;
+    }
+
+    @Override
+    public Map<String, String> get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Row " + index + " of " + size());
+        }
+        int[] rows = order;
+        return new CsvRow(this, first + (rows == null ? index : rows[index]));
+    }
+
+    @Override
+    public int size() {
+        int rows = count;
+        return rows < 0 ? rowCount() : rows;
+    }
+
+    /**
+     * Hands out only the file rows [from, to), in file order until shuffled again.
+     */
+    void restrict(int from, int to) {
+        order = null;
+        first = from;
+        count = to - from;
+    }
+
+    void shuffle() {
+        int[] rows = new int[size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = rows.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = rows[i];
+            rows[i] = rows[j];
+            rows[j] = tmp;
+        }
+        this.order = rows;
+    }
+
+    static String decode(byte[] bytes, int start, int end) {
+        while (start < end && (bytes[start] & 0xFF) <= ' ') start++;
+        while (end > start && (bytes[end - 1] & 0xFF) <= ' ') end--;
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    static String[] parseHeaders(String line, String delimiter) {
+        String[] headers = split(line, delimiter);
+        for (int i = 0; i < headers.length; i++) {
+            headers[i] = headers[i].trim();
+        }
+        return headers;
+    }
+
+    /**
+     * Splits on the literal delimiter (no regex), keeping empty trailing values.
+     */
+    static String[] split(String line, String delimiter) {
+        int count = 1;
+        for (int i = line.indexOf(delimiter); i >= 0; i = line.indexOf(delimiter, i + delimiter.length())) {
+            count++;
+        }
+        String[] values = new String[count];
+        int start = 0;
+        for (int i = 0; i < count - 1; i++) {
+            int end = line.indexOf(delimiter, start);
+            values[i] = line.substring(start, end);
+            start = end + delimiter.length();
+        }
+        values[count - 1] = line.substring(start);
+        return values;
+    }
+}
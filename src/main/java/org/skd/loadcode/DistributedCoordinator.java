@@ -0,0 +1,487 @@
+package org.skd.loadcode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs one test on several JVMs, on one machine or across a LAN. The coordinator waits for
+ * {@link DistributedWorker}s to connect over TCP, splits the thread count or arrival rate between them,
+ * starts them all at the same instant (corrected for each worker's clock offset) and merges the
+ * cumulative histogram snapshots they stream back. Raw samples never leave the workers.
+ * <pre>
+ * new DistributedCoordinator(7000, 4)
+ *         .setThreads(400)
+ *         .setIterations(-1)
+ *         .setTestDuration(300)
+ *         .setReportInterval(5)
+ *         .start();
+ * </pre>
+ */
+public class DistributedCoordinator implements AutoCloseable {
+    // Messages: a type byte and its fields, see the send and read methods on both sides
+    static final int PROTOCOL_VERSION = 1;
+    static final byte HELLO = 1; // worker: version
+    static final byte ASSIGN = 2; // coordinator: index, count
+    static final byte PING = 3; // coordinator: its clock
+    static final byte PONG = 4; // worker: the coordinator clock it got, its own clock
+    static final byte CONFIG = 5; // coordinator: threads, iterations, ramp-up, duration, arrival rate, snapshot interval
+    static final byte START = 6; // coordinator: start instant on the worker's clock
+    static final byte LOAD = 7; // coordinator: threads, arrival rate
+    static final byte STOP = 8;
+    static final byte SNAPSHOT = 9; // worker: last flag, scenarios with their counters and histogram
+
+    private static final int CLOCK_SYNC_ROUNDS = 8;
+
+    private final int port;
+    private final int workerCount;
+    private int threads = 1;
+    private int iterations = 1; // Use -1 for infinite iterations
+    private int rampUpTime = 0; // in seconds
+    private int testDuration = 0; // 0 means no duration limit
+    private double arrivalRate = 0; // total across workers, 0 means closed model
+    private int reportInterval = 0; // in seconds, 0 disables the periodic report
+    private int snapshotInterval = 1; // seconds between snapshots from each worker
+    private int startDelay = 2000; // millis between the start message and the common start instant
+
+    private volatile ServerSocket server;
+    private final List<Worker> workers = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean finishing = new AtomicBoolean(false);
+    private final CompletableFuture<HistogramSnapshot> completion = new CompletableFuture<>();
+
+    public DistributedCoordinator(int port, int workerCount) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("At least one worker is needed.");
+        }
+        this.port = port;
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * Total virtual users, split as evenly as possible between the workers.
+     * In the open model this is the total worker pool size.
+     */
+    public DistributedCoordinator setThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Iterations per user, or the total iterations split between workers in the open model.
+     */
+    public DistributedCoordinator setIterations(int iterations) {
+        this.iterations = iterations;
+        return this;
+    }
+
+    public DistributedCoordinator setRampUp(int rampUp) {
+        this.rampUpTime = rampUp;
+        return this;
+    }
+
+    public DistributedCoordinator setTestDuration(int duration) {
+        this.testDuration = duration;
+        return this;
+    }
+
+    /**
+     * Total iterations per second across all workers (open model).
+     */
+    public DistributedCoordinator setArrivalRate(double iterationsPerSecond) {
+        if (iterationsPerSecond <= 0) {
+            throw new IllegalArgumentException("Arrival rate must be greater than 0.");
+        }
+        this.arrivalRate = iterationsPerSecond;
+        return this;
+    }
+
+    /**
+     * Prints the merged throughput and latency of all workers every given number of seconds.
+     */
+    public DistributedCoordinator setReportInterval(int seconds) {
+        this.reportInterval = seconds;
+        return this;
+    }
+
+    public DistributedCoordinator setSnapshotInterval(int seconds) {
+        this.snapshotInterval = Math.max(1, seconds);
+        return this;
+    }
+
+    /**
+     * Time between sending the start and the common start instant, enough for the message to reach every worker.
+     */
+    public DistributedCoordinator setStartDelay(int millis) {
+        this.startDelay = millis;
+        return this;
+    }
+
+    /**
+     * Port the coordinator listens on. With port 0 the system picks one, known once {@link #start()} is waiting
+     * for workers; 0 until then.
+     */
+    public int getPort() {
+        ServerSocket listening = server;
+        return listening != null ? listening.getLocalPort() : port;
+    }
+
+    /**
+     * Waits until all workers have connected, then starts them together. Returns once started;
+     * the future completes with the merged latency when every worker has finished.
+     */
+    public CompletableFuture<HistogramSnapshot> start() throws IOException {
+        server = new ServerSocket(port);
+        System.out.println("Waiting for " + workerCount + " workers on port " + server.getLocalPort() + "...");
+        while (workers.size() < workerCount) {
+            Socket socket = server.accept();
+            socket.setTcpNoDelay(true);
+            Worker worker = new Worker(workers.size(), socket);
+            if (worker.in.readByte() != HELLO || worker.in.readInt() != PROTOCOL_VERSION) {
+                System.err.println("Ignoring " + socket.getRemoteSocketAddress() + ", not a worker of this version.");
+                socket.close();
+                continue;
+            }
+            workers.add(worker);
+            System.out.println("Worker " + worker.index + " connected from " + socket.getRemoteSocketAddress());
+        }
+
+        for (Worker worker : workers) {
+            worker.assign();
+            worker.syncClock();
+            worker.configure();
+        }
+        long startAt = System.currentTimeMillis() + startDelay;
+        for (Worker worker : workers) {
+            worker.send(START, out -> out.writeLong(startAt + worker.clockOffset));
+            Thread reader = new Thread(worker::readSnapshots, "loadcode-coordinator-" + worker.index);
+            reader.setDaemon(true);
+            reader.start();
+        }
+        System.out.println("Starting " + workerCount + " workers in " + startDelay + " ms...");
+        if (reportInterval > 0) {
+            startReporter();
+        }
+        return completion;
+    }
+
+    /**
+     * Changes the total number of virtual users of a running closed model test,
+     * split between the workers still running.
+     */
+    public void changeThreads(int threads) {
+        this.threads = threads;
+        List<Worker> running = runningWorkerList();
+        for (int i = 0; i < running.size(); i++) {
+            int share = share(threads, i, running.size());
+            running.get(i).trySend(LOAD, out -> {
+                out.writeInt(share);
+                out.writeDouble(0);
+            });
+        }
+    }
+
+    /**
+     * Changes the total arrival rate of a running open model test, split between the workers still running,
+     * so a lost or finished worker's share is not lost with it.
+     */
+    public void changeArrivalRate(double iterationsPerSecond) {
+        if (iterationsPerSecond <= 0) {
+            throw new IllegalArgumentException("Arrival rate must be greater than 0.");
+        }
+        this.arrivalRate = iterationsPerSecond;
+        List<Worker> running = runningWorkerList();
+        for (Worker worker : running) {
+            worker.trySend(LOAD, out -> {
+                out.writeInt(0);
+                out.writeDouble(iterationsPerSecond / running.size());
+            });
+        }
+    }
+
+    /**
+     * Asks every worker to stop; their last snapshots still complete the result.
+     */
+    public void stop() {
+        for (Worker worker : workers) {
+            worker.trySend(STOP, out -> {
+            });
+        }
+    }
+
+    /**
+     * Latency of all workers merged, from their latest snapshots.
+     */
+    public HistogramSnapshot getLatencySnapshot() {
+        HistogramSnapshot merged = HistogramSnapshot.empty();
+        for (ScenarioTotals totals : mergedScenarios().values()) {
+            merged = merged.merge(totals.latency);
+        }
+        return merged;
+    }
+
+    public long getTotalIterations() {
+        long total = 0;
+        for (ScenarioTotals totals : mergedScenarios().values()) {
+            total += totals.iterations;
+        }
+        return total;
+    }
+
+    public long getTotalErrors() {
+        long total = 0;
+        for (ScenarioTotals totals : mergedScenarios().values()) {
+            total += totals.errors;
+        }
+        return total;
+    }
+
+    // Share of a total for one of count workers, the remainder goes to the first workers
+    private static int share(int total, int index, int count) {
+        return total / count + (index < total % count ? 1 : 0);
+    }
+
+    private Map<String, ScenarioTotals> mergedScenarios() {
+        Map<String, ScenarioTotals> merged = new LinkedHashMap<>();
+        for (Worker worker : workers) {
+            for (ScenarioTotals totals : worker.scenarios) {
+                ScenarioTotals sum = merged.get(totals.name);
+                merged.put(totals.name, sum == null ? totals : sum.plus(totals));
+            }
+        }
+        return merged;
+    }
+
+    private void startReporter() {
+        Thread reporter = new Thread(() -> {
+            HistogramSnapshot previous = getLatencySnapshot();
+            long previousErrors = getTotalErrors();
+            long previousTime = System.nanoTime();
+            try {
+                while (!completion.isDone()) {
+                    Thread.sleep(reportInterval * 1000L);
+                    if (finishing.get()) break;
+                    HistogramSnapshot current = getLatencySnapshot();
+                    long errors = getTotalErrors();
+                    long now = System.nanoTime();
+                    HistogramSnapshot interval = current.minus(previous);
+                    System.out.println(String.format("[cluster] workers=%d throughput=%.1f/s errors=%d %s",
+                            runningWorkers(), interval.getCount() / ((now - previousTime) / 1e9),
+                            errors - previousErrors, interval.summary()));
+                    previous = current;
+                    previousErrors = errors;
+                    previousTime = now;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "loadcode-coordinator-reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    private int runningWorkers() {
+        return runningWorkerList().size();
+    }
+
+    private List<Worker> runningWorkerList() {
+        List<Worker> running = new ArrayList<>(workers.size());
+        for (Worker worker : workers) {
+            if (!worker.done) running.add(worker);
+        }
+        return running;
+    }
+
+    private void workerDone() {
+        if (runningWorkers() > 0 || !finishing.compareAndSet(false, true)) return;
+        System.out.println("All workers finished.");
+        Map<String, ScenarioTotals> scenarios = mergedScenarios();
+        HistogramSnapshot merged = getLatencySnapshot();
+        System.out.println("Latency: " + merged.summary());
+        if (scenarios.size() > 1 || getTotalErrors() > 0) {
+            for (ScenarioTotals totals : scenarios.values()) {
+                System.out.println(String.format("  %s iterations=%d errors=%d %s",
+                        totals.name, totals.iterations, totals.errors, totals.latency.summary()));
+            }
+        }
+        close();
+        completion.complete(merged);
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (server != null) server.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (Worker worker : workers) {
+            worker.close();
+        }
+    }
+
+    interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Cumulative counters and latency of one scenario, as streamed by a worker.
+     */
+    static final class ScenarioTotals {
+        final String name;
+        final long iterations;
+        final long errors;
+        final HistogramSnapshot latency;
+
+        ScenarioTotals(String name, long iterations, long errors, HistogramSnapshot latency) {
+            this.name = name;
+            this.iterations = iterations;
+            this.errors = errors;
+            this.latency = latency;
+        }
+
+        ScenarioTotals plus(ScenarioTotals other) {
+            return new ScenarioTotals(name, iterations + other.iterations, errors + other.errors, latency.merge(other.latency));
+        }
+    }
+
+    /**
+     * The coordinator's side of one worker connection.
+     */
+    private final class Worker {
+        final int index;
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        long clockOffset; // worker clock minus coordinator clock, in millis
+        volatile List<ScenarioTotals> scenarios = Collections.emptyList();
+        volatile boolean done = false;
+
+        Worker(int index, Socket socket) throws IOException {
+            this.index = index;
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        void send(byte type, Body body) throws IOException {
+            synchronized (out) {
+                out.writeByte(type);
+                body.write(out);
+                out.flush();
+            }
+        }
+
+        void trySend(byte type, Body body) {
+            if (done) return;
+            try {
+                send(type, body);
+            } catch (IOException e) {
+                System.err.println("Worker " + index + " unreachable: " + e.getMessage());
+            }
+        }
+
+        void assign() throws IOException {
+            send(ASSIGN, o -> {
+                o.writeInt(index);
+                o.writeInt(workerCount);
+            });
+        }
+
+        /**
+         * Estimates the worker's clock offset from the ping with the shortest round trip.
+         */
+        void syncClock() throws IOException {
+            long bestRoundTrip = Long.MAX_VALUE;
+            for (int i = 0; i < CLOCK_SYNC_ROUNDS; i++) {
+                long sent = System.currentTimeMillis();
+                long sentNanos = System.nanoTime();
+                send(PING, o -> o.writeLong(sent));
+                if (in.readByte() != PONG || in.readLong() != sent) {
+                    throw new IOException("Worker " + index + " answered the clock sync out of order.");
+                }
+                long workerClock = in.readLong();
+                long roundTrip = System.nanoTime() - sentNanos;
+                if (roundTrip < bestRoundTrip) {
+                    bestRoundTrip = roundTrip;
+                    clockOffset = workerClock - (sent + roundTrip / 2_000_000);
+                }
+            }
+        }
+
+        void configure() throws IOException {
+            boolean open = arrivalRate > 0;
+            int workerThreads = Math.max(open ? 1 : 0, share(threads, index, workerCount));
+            int workerIterations = (open && iterations != -1) ? share(iterations, index, workerCount) : iterations;
+            double workerRate = arrivalRate / workerCount;
+            send(CONFIG, o -> {
+                o.writeInt(workerThreads);
+                o.writeInt(workerIterations);
+                o.writeInt(rampUpTime);
+                o.writeInt(testDuration);
+                o.writeDouble(workerRate);
+                o.writeInt(snapshotInterval);
+            });
+        }
+
+        void readSnapshots() {
+            try {
+                while (true) {
+                    byte type = in.readByte();
+                    if (type != SNAPSHOT) {
+                        throw new IOException("Unexpected message " + type + " from worker " + index);
+                    }
+                    boolean last = in.readBoolean();
+                    int count = in.readInt();
+                    List<ScenarioTotals> totals = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        totals.add(new ScenarioTotals(in.readUTF(), in.readLong(), in.readLong(), HistogramSnapshot.readFrom(in)));
+                    }
+                    scenarios = totals;
+                    if (last) break;
+                }
+            } catch (IOException e) {
+                if (!finishing.get()) {
+                    System.err.println("Lost worker " + index + " (" + e + "), keeping its last snapshot.");
+                }
+            }
+            done = true;
+            workerDone();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already gone
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.out.println("Usage: DistributedCoordinator <port> <workers> <threads> <durationSeconds> [arrivalRate]");
+            return;
+        }
+        DistributedCoordinator coordinator = new DistributedCoordinator(Integer.parseInt(args[0]), Integer.parseInt(args[1]))
+                .setThreads(Integer.parseInt(args[2]))
+                .setIterations(-1)
+                .setTestDuration(Integer.parseInt(args[3]))
+                .setReportInterval(5);
+        if (args.length > 4) {
+            coordinator.setArrivalRate(Double.parseDouble(args[4]));
+        }
+        coordinator.start().join();
+    }
+}
@@ -0,0 +1,240 @@
+package org.skd.loadcode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * One JVM of a distributed test. It connects to a {@link DistributedCoordinator}, gets its share
+ * of the load, starts at the common instant and streams cumulative snapshots of its scenarios back.
+ * The scenarios themselves are set up locally on the executor as usual:
+ * <pre>
+ * DistributedWorker worker = DistributedWorker.connect("coordinator-host", 7000);
+ * CsvDataset users = new CsvDataset("users.csv", true).setWorkerPartition(worker.getIndex(), worker.getCount());
+ * worker.run(new LoadTestExecutor().addTest(MyTest.class, "testScenario"));
+ * </pre>
+ */
+public class DistributedWorker implements AutoCloseable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final int index;
+    private final int count;
+
+    // Set by the command reader
+    private final CountDownLatch started = new CountDownLatch(1);
+    private int threads;
+    private int iterations;
+    private int rampUpTime;
+    private int testDuration;
+    private double arrivalRate;
+    private int snapshotInterval;
+    private volatile long startAt;
+    private volatile LoadTestExecutor executor;
+    private volatile boolean stopRequested = false;
+
+    private DistributedWorker(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        synchronized (out) {
+            out.writeByte(DistributedCoordinator.HELLO);
+            out.writeInt(DistributedCoordinator.PROTOCOL_VERSION);
+            out.flush();
+        }
+        if (in.readByte() != DistributedCoordinator.ASSIGN) {
+            throw new IOException("Unexpected answer from the coordinator.");
+        }
+        this.index = in.readInt();
+        this.count = in.readInt();
+
+        Thread reader = new Thread(this::readCommands, "loadcode-worker-commands");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Connects and waits until the coordinator has all its workers and has assigned this one its index.
+     */
+    public static DistributedWorker connect(String host, int port) throws IOException {
+        Socket socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        DistributedWorker worker = new DistributedWorker(socket);
+        System.out.println("Connected to " + host + ":" + port + " as worker " + worker.index + " of " + worker.count);
+        return worker;
+    }
+
+    /**
+     * Index of this worker, from 0 to getCount() - 1.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Applies this worker's share of the load to the executor, starts it at the common instant and blocks
+     * until it has finished, sending the coordinator a snapshot every interval and a last one at the end.
+     */
+    public HistogramSnapshot run(LoadTestExecutor executor) throws IOException, InterruptedException {
+        started.await();
+        if (stopRequested) {
+            sendSnapshot(executor, true);
+            return HistogramSnapshot.empty();
+        }
+        executor.setThreads(threads)
+                .setIterations(iterations)
+                .setRampUp(rampUpTime)
+                .setTestDuration(testDuration);
+        if (arrivalRate > 0) {
+            executor.setArrivalRate(arrivalRate);
+        }
+
+        long wait = startAt - System.currentTimeMillis();
+        if (wait > 0) {
+            Thread.sleep(wait);
+        } else {
+            System.err.println("Start message arrived " + -wait + " ms late, starting now.");
+        }
+        CompletableFuture<HistogramSnapshot> completion = executor.startAsync();
+        this.executor = executor;
+        if (stopRequested) {
+            executor.stop(); // arrived while starting
+        }
+
+        HistogramSnapshot result;
+        while (true) {
+            try {
+                result = completion.get(snapshotInterval, TimeUnit.SECONDS);
+                break;
+            } catch (TimeoutException e) {
+                sendSnapshot(executor, false);
+            } catch (ExecutionException e) {
+                sendSnapshot(executor, true);
+                throw new IOException("Worker test failed.", e.getCause());
+            }
+        }
+        sendSnapshot(executor, true);
+        close();
+        return result;
+    }
+
+    private void sendSnapshot(LoadTestExecutor executor, boolean last) throws IOException {
+        List<ScenarioStats> scenarios = executor.getScenarioStats();
+        synchronized (out) {
+            out.writeByte(DistributedCoordinator.SNAPSHOT);
+            out.writeBoolean(last);
+            out.writeInt(scenarios.size());
+            for (ScenarioStats stats : scenarios) {
+                out.writeUTF(stats.getName());
+                out.writeLong(stats.getIterations());
+                out.writeLong(stats.getErrors());
+                stats.getLatencySnapshot().writeTo(out);
+            }
+            out.flush();
+        }
+    }
+
+    private void readCommands() {
+        try {
+            while (true) {
+                byte type = in.readByte();
+                switch (type) {
+                    case DistributedCoordinator.PING: {
+                        long coordinatorClock = in.readLong();
+                        synchronized (out) {
+                            out.writeByte(DistributedCoordinator.PONG);
+                            out.writeLong(coordinatorClock);
+                            out.writeLong(System.currentTimeMillis());
+                            out.flush();
+                        }
+                        break;
+                    }
+                    case DistributedCoordinator.CONFIG:
+                        threads = in.readInt();
+                        iterations = in.readInt();
+                        rampUpTime = in.readInt();
+                        testDuration = in.readInt();
+                        arrivalRate = in.readDouble();
+                        snapshotInterval = in.readInt();
+                        break;
+                    case DistributedCoordinator.START:
+                        startAt = in.readLong();
+                        started.countDown();
+                        break;
+                    case DistributedCoordinator.LOAD:
+                        changeLoad(in.readInt(), in.readDouble());
+                        break;
+                    case DistributedCoordinator.STOP:
+                        System.out.println("Stop requested by the coordinator.");
+                        stopRequested = true;
+                        started.countDown();
+                        LoadTestExecutor running = executor;
+                        if (running != null) {
+                            running.stop();
+                        }
+                        break;
+                    default:
+                        throw new IOException("Unexpected message " + type + " from the coordinator.");
+                }
+            }
+        } catch (IOException e) {
+            if (!socket.isClosed()) {
+                System.err.println("Lost the coordinator (" + e + ").");
+            }
+        }
+    }
+
+    private void changeLoad(int newThreads, double newRate) {
+        LoadTestExecutor running = executor;
+        if (running == null) {
+            return; // not started yet
+        }
+        if (newRate > 0) {
+            running.changeArrivalRate(newRate);
+            return;
+        }
+        int difference = newThreads - running.getActiveUsers();
+        if (difference > 0) {
+            running.addNewThreads(difference);
+        } else if (difference < 0) {
+            running.removeThreads(-difference);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs the given test method as a worker: DistributedWorker host port testClass [method].
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: DistributedWorker <host> <port> <testClass> [method]");
+            return;
+        }
+        DistributedWorker worker = connect(args[0], Integer.parseInt(args[1]));
+        LoadTestExecutor executor = new LoadTestExecutor()
+                .addTest(Class.forName(args[2]), args.length > 3 ? args[3] : "testScenario");
+        worker.run(executor);
+        System.exit(0);
+    }
+}
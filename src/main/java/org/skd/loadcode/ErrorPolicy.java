@@ -0,0 +1,136 @@
+package org.skd.loadcode;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * What happens when an iteration fails. A failed iteration is always counted against its scenario
+ * and exception type and the user carries on; this policy decides how loud and how fast:
+ * <ul>
+ * <li>stack traces are printed for the first error of each scenario and exception type,
+ * then at most one sampled trace per interval with the count of the ones not printed</li>
+ * <li>back-off pauses a user after a failure, doubling per consecutive failure up to a maximum</li>
+ * <li>the circuit breaker pauses all users (and drops open model arrivals) after a run of
+ * consecutive failures, then lets iterations through again; one more failure reopens it</li>
+ * </ul>
+ * A policy holds the breaker state, so use one per executor.
+ */
+public class ErrorPolicy {
+    private long stackTraceIntervalNanos = TimeUnit.SECONDS.toNanos(10);
+    private long backOffNanos = 0; // 0 disables back-off
+    private long maxBackOffNanos = 0;
+    private int breakerThreshold = 0; // consecutive failures that open the breaker, 0 disables it
+    private long breakerOpenNanos = 0;
+
+    private final AtomicInteger consecutiveErrors = new AtomicInteger(0);
+    private volatile boolean open = false;
+    private volatile long openUntil; // nanoTime at which an open breaker lets iterations through again
+
+    /**
+     * Minimum time between two stack traces of the same scenario and exception type.
+     * 0 prints every stack trace, a negative value none.
+     */
+    public ErrorPolicy setStackTraceInterval(int seconds) {
+        this.stackTraceIntervalNanos = seconds < 0 ? -1 : TimeUnit.SECONDS.toNanos(seconds);
+        return this;
+    }
+
+    /**
+     * Pauses a user for initialMillis after a failed iteration, doubling with every consecutive
+     * failure of that user up to maxMillis. A successful iteration resets it. Closed model only.
+     */
+    public ErrorPolicy setBackOff(int initialMillis, int maxMillis) {
+        if (initialMillis < 0 || maxMillis < initialMillis) {
+            throw new IllegalArgumentException("Back-off needs 0 <= initial <= max.");
+        }
+        this.backOffNanos = TimeUnit.MILLISECONDS.toNanos(initialMillis);
+        this.maxBackOffNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+        return this;
+    }
+
+    /**
+     * Opens the circuit for openMillis once consecutiveErrors iterations in a row have failed across all users.
+     */
+    public ErrorPolicy setCircuitBreaker(int consecutiveErrors, int openMillis) {
+        if (consecutiveErrors < 1 || openMillis < 1) {
+            throw new IllegalArgumentException("Circuit breaker needs at least 1 error and 1 ms.");
+        }
+        this.breakerThreshold = consecutiveErrors;
+        this.breakerOpenNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        return this;
+    }
+
+    void onSuccess() {
+        if (breakerThreshold > 0 && consecutiveErrors.get() != 0) { // no shared write while all is well
+            consecutiveErrors.set(0);
+        }
+    }
+
+    /**
+     * Counts the failure towards the breaker and prints its stack trace when it is due.
+     */
+    void onError(String scenario, Throwable error, ScenarioStats.ErrorCount count) {
+        if (breakerThreshold > 0 && consecutiveErrors.incrementAndGet() >= breakerThreshold && !open) {
+            trip();
+        }
+        if (stackTraceIntervalNanos < 0) return;
+
+        long now = System.nanoTime();
+        long next = count.nextTrace.get();
+        if (next != Long.MIN_VALUE && now - next < 0) return;
+        if (!count.nextTrace.compareAndSet(next, now + stackTraceIntervalNanos)) return; // another thread prints it
+
+        long total = count.sum();
+        long skipped = total - count.tracedAt - 1;
+        count.tracedAt = total;
+        System.err.println("Scenario " + scenario + " failed: " + error + " (" + total + " so far"
+                + (skipped > 0 ? ", " + skipped + " stack traces skipped)" : ")"));
+        error.printStackTrace();
+    }
+
+    private synchronized void trip() {
+        if (open) return;
+        openUntil = System.nanoTime() + breakerOpenNanos;
+        open = true;
+        System.err.println("Circuit breaker open for " + TimeUnit.NANOSECONDS.toMillis(breakerOpenNanos)
+                + " ms after " + consecutiveErrors.get() + " consecutive errors.");
+    }
+
+    /**
+     * True while the breaker is open. Once the open time is over the breaker half-opens:
+     * iterations run again but the next failure opens it right away.
+     */
+    boolean isOpen() {
+        if (!open) return false;
+        if (openUntil - System.nanoTime() > 0) return true;
+        synchronized (this) {
+            if (open) {
+                consecutiveErrors.set(breakerThreshold - 1);
+                open = false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parks the calling user while the breaker is open.
+     */
+    void awaitClosed() throws InterruptedException {
+        long remaining;
+        while (open && (remaining = openUntil - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+        isOpen(); // half-open
+    }
+
+    /**
+     * Pauses a user after its given number of consecutive failures.
+     */
+    void backOff(int consecutiveFailures) throws InterruptedException {
+        if (backOffNanos == 0) return;
+        long pause = backOffNanos << Math.min(consecutiveFailures - 1, 20);
+        TimeUnit.NANOSECONDS.sleep(Math.min(pause, maxBackOffNanos));
+    }
+}
@@ -0,0 +1,225 @@
+package org.skd.loadcode;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Watches the load generator itself, so a bad result can be told apart from a saturated generator.
+ * A single daemon thread wakes up every 10 ms and records how late it woke up (scheduler lag),
+ * samples the worker queue depth, and once per second reads GC time and process CPU from the MXBeans.
+ * A second with CPU, GC or a full queue over the limits is counted as saturated and warned about, lag only
+ * once its p90 has been over the limit for a few seconds in a row, so a single hiccup does not count,
+ * and every second is also emitted as a Flight Recorder event when the JVM supports it.
+ */
+public class GeneratorMonitor implements AutoCloseable {
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long WARNING_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    static final long LAG_LIMIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10); // p90 of the wake-up delay
+    static final int LAG_WINDOWS = 3; // consecutive seconds over the lag limit before it counts
+    static final double CPU_LIMIT = 0.9; // share of all cores
+    static final double GC_LIMIT = 0.1; // share of wall time spent in GC
+
+    private final LoadTestExecutor executor;
+    private final LatencyHistogram schedulerLag = new LatencyHistogram();
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    private final int cpus = Runtime.getRuntime().availableProcessors();
+    private final JfrEvents jfr = JfrEvents.create(); // null without Flight Recorder
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private final long startNanos = System.nanoTime();
+    private final long startCpu = cpuTime();
+    private final long startGcMillis = gcMillis();
+    private final long startGcCount = gcCount();
+
+    // Written by the monitor thread only
+    private volatile double cpuLoad = 0; // last window
+    private volatile double maxCpuLoad = 0;
+    private volatile long lagP99 = 0; // last window
+    private volatile int maxQueueDepth = 0;
+    private volatile int saturatedWindows = 0;
+    private final List<String> warnings = new ArrayList<>(); // distinct reasons seen, guarded by itself
+
+    GeneratorMonitor(LoadTestExecutor executor) {
+        this.executor = executor;
+        this.thread = new Thread(this::observe, "loadcode-generator-monitor");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY); // measure the scheduler, not our own starvation
+        thread.start();
+    }
+
+    private void observe() {
+        long windowStart = System.nanoTime();
+        long windowCpu = cpuTime();
+        long windowGcMillis = gcMillis();
+        long windowGcCount = gcCount();
+        long windowIterations = executor.getTotalIterations();
+        HistogramSnapshot windowLag = schedulerLag.snapshot();
+        int windowQueue = 0;
+        int laggingWindows = 0;
+        long lastWarning = windowStart - WARNING_INTERVAL_NANOS;
+        Object event = (jfr != null) ? jfr.begin() : null;
+
+        while (running) {
+            long intended = System.nanoTime() + TICK_NANOS;
+            LockSupport.parkNanos(TICK_NANOS);
+            long now = System.nanoTime();
+            schedulerLag.record(now - intended);
+            windowQueue = Math.max(windowQueue, executor.getQueueDepth());
+
+            long elapsed = now - windowStart;
+            if (elapsed < WINDOW_NANOS) continue;
+
+            HistogramSnapshot lag = schedulerLag.snapshot();
+            HistogramSnapshot interval = lag.minus(windowLag);
+            long cpu = cpuTime();
+            long gc = gcMillis();
+            long collections = gcCount();
+            long iterations = executor.getTotalIterations();
+            double load = (cpu < 0) ? -1 : (cpu - windowCpu) / ((double) elapsed * cpus);
+            double gcShare = TimeUnit.MILLISECONDS.toNanos(gc - windowGcMillis) / (double) elapsed;
+            int capacity = executor.getQueueCapacity();
+
+            List<String> reasons = new ArrayList<>();
+            // With ~100 ticks a window the p99 is the slowest tick, so look at the p90, and only when it persists
+            long lagP90 = interval.getValueAtPercentile(90);
+            laggingWindows = (lagP90 > LAG_LIMIT_NANOS) ? laggingWindows + 1 : 0;
+            if (laggingWindows >= LAG_WINDOWS) {
+                flag(reasons, "scheduler lag", String.format(" p90 %.1fms for %ds", lagP90 / 1e6, laggingWindows));
+            }
+            if (load > CPU_LIMIT) {
+                flag(reasons, "process cpu", String.format(" %.0f%%", load * 100));
+            }
+            if (gcShare > GC_LIMIT) {
+                flag(reasons, "gc", String.format(" %.0f%% of the time", gcShare * 100));
+            }
+            if (capacity > 0 && windowQueue >= capacity) {
+                flag(reasons, "worker queue full", "");
+            }
+
+            cpuLoad = load;
+            maxCpuLoad = Math.max(maxCpuLoad, load);
+            lagP99 = interval.getValueAtPercentile(99);
+            maxQueueDepth = Math.max(maxQueueDepth, windowQueue);
+            if (!reasons.isEmpty()) {
+                saturatedWindows++;
+                if (now - lastWarning >= WARNING_INTERVAL_NANOS) {
+                    System.err.println("[generator] WARNING load generator saturated: " + String.join(", ", reasons)
+                            + ". Results may reflect the generator, not the system under test.");
+                    lastWarning = now;
+                }
+            }
+            if (jfr != null) {
+                jfr.commit(event, executor.getTotalThreads(), (iterations - windowIterations) / (elapsed / 1e9),
+                        interval.getValueAtPercentile(99), interval.getMax(), load, gc - windowGcMillis,
+                        collections - windowGcCount, windowQueue, !reasons.isEmpty());
+                event = jfr.begin();
+            }
+
+            windowStart = now;
+            windowCpu = cpu;
+            windowGcMillis = gc;
+            windowGcCount = collections;
+            windowIterations = iterations;
+            windowLag = lag;
+            windowQueue = 0;
+        }
+    }
+
+    private void flag(List<String> reasons, String kind, String detail) {
+        reasons.add(kind + detail);
+        synchronized (warnings) {
+            if (!warnings.contains(kind)) warnings.add(kind);
+        }
+    }
+
+    /**
+     * Scheduler lag of the whole run: how much later than asked the monitor thread woke up.
+     */
+    public HistogramSnapshot getSchedulerLag() {
+        return schedulerLag.snapshot();
+    }
+
+    /**
+     * Process CPU over the last second as a share of all cores, -1 when the JVM does not report it.
+     */
+    public double getCpuLoad() {
+        return cpuLoad;
+    }
+
+    /**
+     * p99 scheduler lag of the last second in nanoseconds.
+     */
+    public long getLastSchedulerLagP99() {
+        return lagP99;
+    }
+
+    public long getGcTimeMillis() {
+        return gcMillis() - startGcMillis;
+    }
+
+    public long getGcCount() {
+        return gcCount() - startGcCount;
+    }
+
+    /**
+     * Seconds in which the generator was over one of the limits. Any at all make the results suspect.
+     */
+    public int getSaturatedSeconds() {
+        return saturatedWindows;
+    }
+
+    public String summary() {
+        long elapsed = System.nanoTime() - startNanos;
+        long cpu = cpuTime();
+        HistogramSnapshot lag = getSchedulerLag();
+        String summary = String.format("scheduler lag p99=%.2fms max=%.2fms gc=%dms in %d collections (%.1f%%) cpu avg=%s max=%s queue max=%d saturated=%ds",
+                lag.getValueAtPercentile(99) / 1e6, lag.getMax() / 1e6, getGcTimeMillis(), getGcCount(),
+                TimeUnit.MILLISECONDS.toNanos(getGcTimeMillis()) * 100.0 / elapsed,
+                cpu < 0 ? "n/a" : String.format("%.0f%%", (cpu - startCpu) * 100.0 / ((double) elapsed * cpus)),
+                cpu < 0 ? "n/a" : String.format("%.0f%%", maxCpuLoad * 100), maxQueueDepth, saturatedWindows);
+        synchronized (warnings) {
+            if (saturatedWindows > 0) {
+                summary += "\nWARNING: the load generator was saturated (" + String.join(", ", warnings)
+                        + "), results may be invalid.";
+            }
+        }
+        return summary;
+    }
+
+    private long cpuTime() {
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    private long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            total += Math.max(0, collector.getCollectionTime());
+        }
+        return total;
+    }
+
+    private long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            total += Math.max(0, collector.getCollectionCount());
+        }
+        return total;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+}
@@ -1,196 +1,608 @@
 package org.skd.loadcode;
 
+import org.h2.api.ErrorCode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
-public class H2MessageQueue {
+public class H2MessageQueue implements MessageQueue {
     private static final String DB_URL = "jdbc:h2:file:./message_db";
     private static final String USER = "sa";
     private static final String PASSWORD = "sa";
+    private static final int DEFAULT_POOL_SIZE = 16;
+    private static final int INLINE_LIMIT = 255; // longer payloads go to the BLOB column
+    private static final int CLAIM_WINDOW = 8; // batches of oldest pending rows a claim may lock
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int poolSize;
+    private final ConcurrentLinkedQueue<PooledConnection> idleConnections = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger(0);
+    private volatile long leaseTimeoutMillis = 0; // 0 means claimed messages are never handed out again
+    private final Map<String, AtomicLong> leaseSweeps = new ConcurrentHashMap<>();
+    private volatile boolean compression = false;
+    private final TopicListeners listeners = new TopicListeners();
+    // Topics whose table this queue has created or found, so DDL runs once per topic.
+    // Per instance and forgotten on close or a missing table, since the database can go away under it.
+    private final Set<String> knownTopics = ConcurrentHashMap.newKeySet();
 
     public H2MessageQueue() {
+        this(DB_URL, USER, PASSWORD);
+    }
+
+    /**
+     * Queue on the given H2 database, e.g. "jdbc:h2:mem:queue;DB_CLOSE_DELAY=-1" for an in-memory queue
+     * (DB_CLOSE_DELAY keeps the database alive while no connection is open).
+     */
+    public H2MessageQueue(String url, String user, String password) {
+        this(url, user, password, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * @param poolSize number of idle connections kept open for reuse
+     */
+    public H2MessageQueue(String url, String user, String password, int poolSize) {
         try {
             Class.forName("org.h2.Driver");
         } catch (ClassNotFoundException e) {
             throw new RuntimeException("H2 Driver not found!", e);
         }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * Claimed messages that are not acked within the timeout become available to other consumers again,
+     * so messages held by a crashed consumer are not lost. 0 disables the lease.
+     */
+    public H2MessageQueue setLeaseTimeout(long millis) {
+        this.leaseTimeoutMillis = millis;
+        return this;
+    }
+
+    /**
+     * GZIP payloads that are too long for the inline column before storing them.
+     */
+    public H2MessageQueue setCompression(boolean compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * Takes an idle pooled connection or opens a new one.
+     */
+    private PooledConnection borrow() throws SQLException {
+        PooledConnection conn = idleConnections.poll();
+        if (conn != null) {
+            idleCount.decrementAndGet();
+            return conn;
+        }
+        return new PooledConnection(DriverManager.getConnection(url, user, password));
+    }
+
+    /**
+     * Returns a healthy connection to the pool, closing it if the pool is already full.
+     */
+    private void release(PooledConnection conn) {
+        if (idleCount.incrementAndGet() <= poolSize) {
+            idleConnections.offer(conn);
+        } else {
+            idleCount.decrementAndGet();
+            conn.close();
+        }
+    }
+
+    /**
+     * Reports a failed statement. If the topic's table has gone, e.g. dropped or an in-memory database
+     * closed with its last connection, it is created again on the next call.
+     */
+    private void failed(String topic, SQLException e) {
+        int code = e.getErrorCode();
+        if (code == ErrorCode.TABLE_OR_VIEW_NOT_FOUND_1 || code == ErrorCode.TABLE_OR_VIEW_NOT_FOUND_DATABASE_EMPTY_1
+                || code == ErrorCode.TABLE_OR_VIEW_NOT_FOUND_WITH_CANDIDATES_2) {
+            knownTopics.remove(topic);
+        }
+        e.printStackTrace();
     }
 
-    private Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(DB_URL, USER, PASSWORD);
+    /**
+     * Closes a connection that failed, so a broken session is never reused.
+     */
+    private void discard(PooledConnection conn) {
+        if (conn != null) {
+            conn.close();
+        }
     }
 
     /**
      * Creates a table for the given topic if it doesn't exist.
      */
     private void ensureTopicTableExists(String topic) {
+        if (knownTopics.contains(topic)) return;
+
         String sql = "CREATE TABLE IF NOT EXISTS " + topic + " (" +
                 "id IDENTITY PRIMARY KEY, " +
                 "data VARCHAR(255) NOT NULL, " +
                 "status VARCHAR(20) DEFAULT 'PENDING')";
 
-        String indexSql = "CREATE INDEX IF NOT EXISTS idx_status ON " + topic + " (status)";
-
-        try (Connection conn = getConnection();
-             Statement stmt = conn.createStatement()) {
-            stmt.executeUpdate(sql);
-            stmt.executeUpdate(indexSql); // Add index on `status`
+        // Index names are schema wide in H2, so each topic needs its own
+        // (status, id) lets claim find the oldest pending rows without sorting the whole topic
+        String indexSql = "CREATE INDEX IF NOT EXISTS idx_" + topic + "_status_id ON " + topic + " (status, id)";
+        // The first release created idx_status (status) on whichever topic came first, superseded by the above
+        String oldIndexSql = "DROP INDEX IF EXISTS idx_status";
+        // Columns added after the first release, tables created by older versions get them here
+        String leaseSql = "ALTER TABLE " + topic + " ADD COLUMN IF NOT EXISTS lease_until BIGINT";
+        String payloadSql = "ALTER TABLE " + topic + " ADD COLUMN IF NOT EXISTS payload BLOB";
+        String compressedSql = "ALTER TABLE " + topic + " ADD COLUMN IF NOT EXISTS compressed BOOLEAN DEFAULT FALSE";
+
+        PooledConnection conn = null;
+        try {
+            conn = borrow();
+            try (Statement stmt = conn.connection.createStatement()) {
+                stmt.executeUpdate(sql);
+                stmt.executeUpdate(indexSql);
+                stmt.executeUpdate(oldIndexSql);
+                stmt.executeUpdate(leaseSql);
+                stmt.executeUpdate(payloadSql);
+                stmt.executeUpdate(compressedSql);
+            }
+            release(conn);
+            knownTopics.add(topic);
         } catch (SQLException e) {
+            discard(conn);
             e.printStackTrace();
         }
     }
 
 
     /**
-     * Inserts a new message into the given topic.
+     * Inserts a new message into the given topic and returns its id, or -1 if the insert failed.
      */
-    public void insert(String topic, String data) {
+    @Override
+    public long insert(String topic, String data) {
         ensureTopicTableExists(topic);
-        String sql = "INSERT INTO " + topic + " (data, status) VALUES (?, 'PENDING')";
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, data);
+        String sql = "INSERT INTO " + topic + " (data, payload, compressed, status) VALUES (?, ?, ?, 'PENDING')";
+        PooledConnection conn = null;
+        try {
+            conn = borrow();
+            PreparedStatement stmt = conn.prepareReturningId(sql);
+            bindPayload(stmt, data);
             stmt.executeUpdate();
+            long id = -1;
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                if (keys.next()) {
+                    id = keys.getLong(1);
+                }
+            }
+            release(conn);
+            listeners.fire(topic);
+            return id;
         } catch (SQLException e) {
-            e.printStackTrace();
+            discard(conn);
+            failed(topic, e);
         }
+        return -1;
     }
 
     /**
-     * Reads a batch of messages from the given topic.
-     * Ensures each thread gets unique messages by updating their status to 'READ'.
+     * Short payloads are stored inline in `data`, longer ones in the `payload` BLOB (optionally compressed)
+     * with their digest in `data`, so the data-matching delete and reset find them too.
      */
-    public  synchronized List<String> read(String topic, int batchSize) {
-        ensureTopicTableExists(topic);
-        List<String> messages = new ArrayList<>();
+    private void bindPayload(PreparedStatement stmt, String data) throws SQLException {
+        if (data.length() <= INLINE_LIMIT) {
+            stmt.setString(1, data);
+            stmt.setNull(2, Types.BLOB);
+            stmt.setBoolean(3, false);
+        } else {
+            byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+            stmt.setString(1, digest(bytes));
+            stmt.setBytes(2, compression ? gzip(bytes) : bytes);
+            stmt.setBoolean(3, compression);
+        }
+    }
+
+    /**
+     * WHERE clause matching messages with exactly this data, inline or large.
+     * The payload check keeps a short message that happens to look like a digest apart from a large one.
+     */
+    private static String dataMatch(String data) {
+        return data.length() <= INLINE_LIMIT ? "data = ? AND payload IS NULL" : "data = ? AND payload IS NOT NULL";
+    }
+
+    private static String dataKey(String data) {
+        return data.length() <= INLINE_LIMIT ? data : digest(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String digest(byte[] bytes) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder key = new StringBuilder("sha256:");
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JVM has SHA-256
+        }
+    }
 
-        String sqlSelect = "SELECT id, data FROM " + topic + " WHERE status = 'PENDING' " +
-                "ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED";
-        String sqlUpdate = "UPDATE " + topic + " SET status = 'READ' WHERE id = ?";
+    private static String readPayload(ResultSet rs) throws SQLException {
+        byte[] payload = rs.getBytes("payload");
+        if (payload == null) {
+            return rs.getString("data");
+        }
+        return new String(rs.getBoolean("compressed") ? gunzip(payload) : payload, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 16);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
 
-        try (Connection conn = getConnection()) {
-            conn.setAutoCommit(false);  // Start transaction
+    private static byte[] gunzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = gzip.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
 
-            try (PreparedStatement stmtSelect = conn.prepareStatement(sqlSelect);
-                 PreparedStatement stmtUpdate = conn.prepareStatement(sqlUpdate)) {
+    /**
+     * Claims up to batchSize messages, oldest first, and returns them with their ids.
+     * The batch is locked with SKIP LOCKED and marked with a single UPDATE by id, so concurrent
+     * consumers take different rows instead of waiting on each other or on a Java monitor.
+     * H2 locks every matching row before it sorts, so the locking select is bounded to a window of the
+     * oldest pending ids, found first without locks; the window widens while other claims hold all of it.
+     */
+    @Override
+    public List<QueueMessage> claim(String topic, int batchSize) {
+        ensureTopicTableExists(topic);
+        requeueExpired(topic);
+        List<QueueMessage> messages = new ArrayList<>();
 
-                stmtSelect.setInt(1, batchSize);
-                ResultSet rs = stmtSelect.executeQuery();
+        String sqlBound = "SELECT id FROM " + topic + " WHERE status = 'PENDING' ORDER BY status, id LIMIT 1 OFFSET ?";
+        String sqlSelect = "SELECT id, data, payload, compressed FROM " + topic +
+                " WHERE status = 'PENDING' AND id <= ? ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED";
+        String sqlUpdate = "UPDATE " + topic + " SET status = 'READ', lease_until = ? WHERE id = ANY(?)";
 
-                while (rs.next()) {
-                    int id = rs.getInt("id");
-                    String data = rs.getString("data");
-                    messages.add(data);
+        PooledConnection conn = null;
+        try {
+            conn = borrow();
+            conn.connection.setAutoCommit(false);  // Start transaction
+
+            try {
+                PreparedStatement stmtBound = conn.prepare(sqlBound);
+                PreparedStatement stmtSelect = conn.prepare(sqlSelect);
+                long window = (long) batchSize * CLAIM_WINDOW;
+                long bound;
+                do {
+                    stmtBound.setLong(1, window - 1);
+                    try (ResultSet rs = stmtBound.executeQuery()) {
+                        bound = rs.next() ? rs.getLong(1) : Long.MAX_VALUE; // fewer pending rows than the window
+                    }
+                    stmtSelect.setLong(1, bound);
+                    stmtSelect.setInt(2, batchSize);
+                    try (ResultSet rs = stmtSelect.executeQuery()) {
+                        while (rs.next()) {
+                            messages.add(new QueueMessage(rs.getLong("id"), readPayload(rs)));
+                        }
+                    }
+                    window *= 2;
+                } while (messages.isEmpty() && bound != Long.MAX_VALUE);
 
-                    // Mark as READ to prevent re-reading
-                    stmtUpdate.setInt(1, id);
+                if (!messages.isEmpty()) {
+                    Long[] ids = new Long[messages.size()];
+                    for (int i = 0; i < ids.length; i++) {
+                        ids[i] = messages.get(i).getId();
+                    }
+                    PreparedStatement stmtUpdate = conn.prepare(sqlUpdate);
+                    long lease = leaseTimeoutMillis;
+                    if (lease > 0) {
+                        stmtUpdate.setLong(1, System.currentTimeMillis() + lease);
+                    } else {
+                        stmtUpdate.setNull(1, Types.BIGINT); // never expires
+                    }
+                    stmtUpdate.setArray(2, conn.connection.createArrayOf("BIGINT", ids));
                     stmtUpdate.executeUpdate();
                 }
 
-                conn.commit();  // Commit transaction
+                conn.connection.commit();  // Commit transaction
             } catch (SQLException e) {
-                conn.rollback();  // Rollback in case of failure
-                e.printStackTrace();
+                conn.connection.rollback();  // Rollback in case of failure
+                messages.clear();
+                failed(topic, e);
             }
+            conn.connection.setAutoCommit(true);
+            release(conn);
         } catch (SQLException e) {
-            e.printStackTrace();
+            discard(conn);
+            failed(topic, e);
         }
 
         return messages;
     }
 
+    /**
+     * Puts claimed messages whose lease has expired back to PENDING.
+     * Runs at most once per sweep interval per topic, whichever thread gets there first.
+     */
+    private void requeueExpired(String topic) {
+        long lease = leaseTimeoutMillis;
+        if (lease <= 0) return;
+
+        long now = System.currentTimeMillis();
+        AtomicLong lastSweep = leaseSweeps.computeIfAbsent(topic, t -> new AtomicLong());
+        long last = lastSweep.get();
+        if (now - last < Math.min(lease, 1000) || !lastSweep.compareAndSet(last, now)) return;
+
+        String sql = "UPDATE " + topic + " SET status = 'PENDING', lease_until = NULL WHERE status = 'READ' AND lease_until < ?";
+        PooledConnection conn = null;
+        try {
+            conn = borrow();
+            PreparedStatement stmt = conn.prepare(sql);
+            stmt.setLong(1, now);
+            stmt.executeUpdate();
+            release(conn);
+        } catch (SQLException e) {
+            discard(conn);
+            failed(topic, e);
+        }
+    }
+
+    /**
+     * Deletes a batch of messages by id with a single statement.
+     */
+    @Override
+    public void delete(String topic, Collection<Long> ids) {
+        updateByIds(topic, "DELETE FROM " + topic + " WHERE id = ANY(?)", ids);
+    }
+
+    /**
+     * Makes a batch of messages available for processing again, by id.
+     */
+    @Override
+    public void reset(String topic, Collection<Long> ids) {
+        updateByIds(topic, "UPDATE " + topic + " SET status = 'PENDING', lease_until = NULL WHERE id = ANY(?)", ids);
+        listeners.fire(topic);
+    }
+
+    private void updateByIds(String topic, String sql, Collection<Long> ids) {
+        if (ids.isEmpty()) return;
+        ensureTopicTableExists(topic);
+        PooledConnection conn = null;
+        try {
+            conn = borrow();
+            PreparedStatement stmt = conn.prepare(sql);
+            stmt.setArray(1, conn.connection.createArrayOf("BIGINT", ids.toArray(new Long[0])));
+            stmt.executeUpdate();
+            release(conn);
+        } catch (SQLException e) {
+            discard(conn);
+            failed(topic, e);
+        }
+    }
+
     /**
      * Deletes a specific message from the topic.
+     * Matches every message with this data with a full scan, prefer {@link #delete(String, long)}.
      */
-    public synchronized void delete(String topic, String data) {
+    @Override
+    public void delete(String topic, String data) {
         ensureTopicTableExists(topic);
-        String sql = "DELETE FROM " + topic + " WHERE data = ?";
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, data);
+        String sql = "DELETE FROM " + topic + " WHERE " + dataMatch(data);
+        PooledConnection conn = null;
+        try {
+            conn = borrow();
+            PreparedStatement stmt = conn.prepare(sql);
+            stmt.setString(1, dataKey(data));
             stmt.executeUpdate();
+            release(conn);
         } catch (SQLException e) {
-            e.printStackTrace();
+            discard(conn);
+            failed(topic, e);
         }
     }
 
     /**
      * Resets a message by making it available for processing again.
+     * Matches every message with this data with a full scan, prefer {@link #reset(String, long)}.
      */
+    @Override
     public void reset(String topic, String data) {
         ensureTopicTableExists(topic);
-        String sql = "UPDATE " + topic + " SET status = 'PENDING' WHERE data = ?";
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, data);
+        String sql = "UPDATE " + topic + " SET status = 'PENDING', lease_until = NULL WHERE " + dataMatch(data);
+        PooledConnection conn = null;
+        try {
+            conn = borrow();
+            PreparedStatement stmt = conn.prepare(sql);
+            stmt.setString(1, dataKey(data));
             stmt.executeUpdate();
+            release(conn);
+            listeners.fire(topic);
         } catch (SQLException e) {
-            e.printStackTrace();
+            discard(conn);
+            failed(topic, e);
         }
     }
 
 
-    public synchronized void bulkInsert(String topic, List<String> messages) {
+    /**
+     * Inserts all messages in one transaction and returns their ids in the same order.
+     */
+    @Override
+    public List<Long> bulkInsert(String topic, List<String> messages) {
         ensureTopicTableExists(topic);
-        String sql = "INSERT INTO " + topic + " (data, status) VALUES (?, 'PENDING')";
+        String sql = "INSERT INTO " + topic + " (data, payload, compressed, status) VALUES (?, ?, ?, 'PENDING')";
+        List<Long> ids = new ArrayList<>(messages.size());
 
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            conn.setAutoCommit(false);  // Start transaction
+        PooledConnection conn = null;
+        try {
+            conn = borrow();
+            conn.connection.setAutoCommit(false);  // Start transaction
 
+            PreparedStatement stmt = conn.prepareReturningId(sql);
             for (String data : messages) {
-                stmt.setString(1, data);
+                bindPayload(stmt, data);
                 stmt.addBatch();
             }
             stmt.executeBatch();  // Execute all inserts in a batch
-            conn.commit();  // Commit transaction
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                while (keys.next()) {
+                    ids.add(keys.getLong(1));
+                }
+            }
+            conn.connection.commit();  // Commit transaction
+            conn.connection.setAutoCommit(true);
+            release(conn);
+            listeners.fire(topic);
         } catch (SQLException e) {
-            e.printStackTrace();
+            discard(conn);
+            ids.clear();
+            failed(topic, e);
         }
+        return ids;
     }
 
 
+    @Override
     public int getAvailableRecords(String topic) {
         ensureTopicTableExists(topic);
+        requeueExpired(topic);
         String sql = "SELECT COUNT(*) FROM " + topic + " WHERE status = 'PENDING'";
 
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                return rs.getInt(1);  // Returns the count of records with 'PENDING' status
+        PooledConnection conn = null;
+        try {
+            conn = borrow();
+            int count = 0;
+            try (ResultSet rs = conn.prepare(sql).executeQuery()) {
+                if (rs.next()) {
+                    count = rs.getInt(1);  // Returns the count of records with 'PENDING' status
+                }
             }
+            release(conn);
+            return count;
         } catch (SQLException e) {
-            e.printStackTrace();
+            discard(conn);
+            failed(topic, e);
         }
 
         return 0;  // Return 0 if no records are found
     }
 
+    @Override
+    public void addInsertListener(String topic, Runnable listener) {
+        listeners.add(topic, listener);
+    }
+
+    @Override
+    public void removeInsertListener(String topic, Runnable listener) {
+        listeners.remove(topic, listener);
+    }
+
+    /**
+     * Closes all idle pooled connections. Topic tables are checked again on the next use, since
+     * closing the last connection drops an in-memory database without DB_CLOSE_DELAY.
+     */
+    @Override
+    public void close() {
+        PooledConnection conn;
+        while ((conn = idleConnections.poll()) != null) {
+            idleCount.decrementAndGet();
+            conn.close();
+        }
+        knownTopics.clear();
+    }
+
+    /**
+     * A long-lived connection together with its prepared statements, reused across calls.
+     */
+    private static final class PooledConnection {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement stmt = statements.get(sql);
+            if (stmt == null) {
+                stmt = connection.prepareStatement(sql);
+                statements.put(sql, stmt);
+            }
+            return stmt;
+        }
+
+        PreparedStatement prepareReturningId(String sql) throws SQLException {
+            String key = "RETURNING ID " + sql;
+            PreparedStatement stmt = statements.get(key);
+            if (stmt == null) {
+                stmt = connection.prepareStatement(sql, new String[]{"ID"});
+                statements.put(key, stmt);
+            }
+            return stmt;
+        }
+
+        void close() {
+            try {
+                connection.close(); // also closes the cached statements
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     public static void main(String[] args) {
 
         AtomicInteger y = new AtomicInteger(1);
         ExecutorService executorService = Executors.newFixedThreadPool(100);
+        H2MessageQueue h2MessageQueue = new H2MessageQueue(); // one shared instance, so all threads share its pool
+        QueueConsumer consumer = new QueueConsumer(h2MessageQueue, "forupdate", 100, 1000); // one fetcher feeds all threads
         for(int i=0;i<100;i++)
         {
 
-            H2MessageQueue h2MessageQueue = new H2MessageQueue();
             int finalI = i;
             executorService.submit(()->{
                 final int x = finalI;
-                while (true)
+                for (QueueMessage message : consumer) // blocks while the topic is empty instead of polling
                 {
-                    List<String> datared = h2MessageQueue.read("forupdate",1);
-                    if(datared.size()>0)
-                    {
-                        //update forupdate set status = 'PENDING'
-                        //System.out.println(y.getAndIncrement()+"=>"+x+" -- "+datared);
-                        System.out.println(datared);
-                    }
+                    //update forupdate set status = 'PENDING'
+                    //System.out.println(y.getAndIncrement()+"=>"+x+" -- "+message.getData());
+                    System.out.println(message.getData());
                 }
 
 
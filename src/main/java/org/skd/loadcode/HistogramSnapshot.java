@@ -0,0 +1,163 @@
+package org.skd.loadcode;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Immutable point-in-time copy of one or more {@link LatencyHistogram}s.
+ * Snapshots can be merged and subtracted, so interval statistics are the
+ * difference between two cumulative snapshots. They can also be sent between JVMs in a compact
+ * sparse form, see {@link DistributedCoordinator}.
+ */
+public class HistogramSnapshot {
+    private final long[] counts;
+    private final long totalCount;
+    private final long totalNanos;
+
+    HistogramSnapshot(long[] counts, long totalNanos) {
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        this.counts = counts;
+        this.totalCount = total;
+        this.totalNanos = totalNanos;
+    }
+
+    public static HistogramSnapshot empty() {
+        return new HistogramSnapshot(new long[LatencyHistogram.BUCKET_COUNT], 0);
+    }
+
+    public HistogramSnapshot merge(HistogramSnapshot other) {
+        long[] merged = new long[counts.length];
+        for (int i = 0; i < merged.length; i++) {
+            merged[i] = counts[i] + other.counts[i];
+        }
+        return new HistogramSnapshot(merged, totalNanos + other.totalNanos);
+    }
+
+    /**
+     * Samples recorded since the given earlier snapshot of the same histograms.
+     */
+    public HistogramSnapshot minus(HistogramSnapshot earlier) {
+        long[] diff = new long[counts.length];
+        for (int i = 0; i < diff.length; i++) {
+            diff[i] = Math.max(0, counts[i] - earlier.counts[i]);
+        }
+        return new HistogramSnapshot(diff, totalNanos - earlier.totalNanos);
+    }
+
+    public long getCount() {
+        return totalCount;
+    }
+
+    /**
+     * Value in nanoseconds at the given percentile (0-100).
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) return 0;
+
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return LatencyHistogram.highestValueAt(i);
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Number of samples at or below the given value in nanoseconds, to the bucket precision.
+     */
+    public long getCountAtOrBelow(long nanos) {
+        int last = LatencyHistogram.indexOf(Math.max(0, Math.min(nanos, LatencyHistogram.MAX_TRACKABLE_VALUE)));
+        long count = 0;
+        for (int i = 0; i <= last && i < counts.length; i++) {
+            count += counts[i];
+        }
+        return count;
+    }
+
+    public long getMax() {
+        for (int i = counts.length - 1; i >= 0; i--) {
+            if (counts[i] > 0) {
+                return LatencyHistogram.highestValueAt(i);
+            }
+        }
+        return 0;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? 0 : (double) totalNanos / totalCount;
+    }
+
+    /**
+     * One line summary in milliseconds: count, p50, p90, p99, p99.9 and max.
+     */
+    public String summary() {
+        return String.format("count=%d p50=%.2fms p90=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms",
+                totalCount,
+                getValueAtPercentile(50) / 1e6,
+                getValueAtPercentile(90) / 1e6,
+                getValueAtPercentile(99) / 1e6,
+                getValueAtPercentile(99.9) / 1e6,
+                getMax() / 1e6);
+    }
+
+    /**
+     * Writes only the non-empty buckets, as varint index gaps and counts, so a typical histogram
+     * takes a few hundred bytes instead of the full bucket array.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        int nonEmpty = 0;
+        for (long c : counts) {
+            if (c != 0) nonEmpty++;
+        }
+        writeVarLong(out, totalNanos);
+        writeVarLong(out, nonEmpty);
+        int previous = -1;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                writeVarLong(out, i - previous);
+                writeVarLong(out, counts[i]);
+                previous = i;
+            }
+        }
+    }
+
+    static HistogramSnapshot readFrom(DataInput in) throws IOException {
+        long totalNanos = readVarLong(in);
+        long nonEmpty = readVarLong(in);
+        long[] counts = new long[LatencyHistogram.BUCKET_COUNT];
+        int index = -1;
+        for (long i = 0; i < nonEmpty; i++) {
+            index += (int) readVarLong(in);
+            if (index < 0 || index >= counts.length) {
+                throw new IOException("Histogram bucket " + index + " out of range.");
+            }
+            counts[index] = readVarLong(in);
+        }
+        return new HistogramSnapshot(counts, totalNanos);
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint.");
+    }
+}
@@ -0,0 +1,318 @@
+package org.skd.loadcode;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process {@link MessageQueue} for handing work between scenarios without SQL.
+ * Each topic is a lock-free bounded ring buffer, so producers and consumers only meet on a CAS.
+ * With a write-ahead log directory, inserts and removals are appended to a memory-mapped log and
+ * replayed on startup; messages that were claimed but not acked before a crash are delivered again.
+ */
+public class InMemoryMessageQueue implements MessageQueue {
+    private static final int DEFAULT_CAPACITY = 1 << 18;
+
+    private static final int PENDING = 0;
+    private static final int CLAIMED = 1;
+    private static final int DELETED = 2;
+
+    private final int capacity;
+    private final Map<String, Topic> topics = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong(0);
+    private final WriteAheadLog log;
+    private final AtomicBoolean checkpointing = new AtomicBoolean();
+    private volatile long leaseTimeoutMillis = 0; // 0 means claimed messages are never handed out again
+    private final TopicListeners listeners = new TopicListeners();
+
+    public InMemoryMessageQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity maximum number of pending messages per topic
+     */
+    public InMemoryMessageQueue(int capacity) {
+        this.capacity = capacity;
+        this.log = null;
+    }
+
+    /**
+     * Durable queue: state is recovered from the write-ahead log in the given directory,
+     * then the live messages are rewritten into a fresh segment and the old segments are removed.
+     * The same checkpoint runs while the queue is in use, each time a few segments have filled up.
+     */
+    public InMemoryMessageQueue(int capacity, Path logDirectory) throws IOException {
+        this(capacity, new WriteAheadLog(logDirectory));
+    }
+
+    InMemoryMessageQueue(int capacity, WriteAheadLog log) throws IOException {
+        this.capacity = capacity;
+        this.log = log;
+        log.replay((op, topic, id, data) -> {
+            ids.accumulateAndGet(id, Math::max);
+            if (op == WriteAheadLog.INSERT) {
+                topic(topic).live.put(id, new Entry(id, data));
+            } else {
+                topic(topic).live.remove(id);
+            }
+        });
+
+        for (Map.Entry<String, Topic> topic : topics.entrySet()) {
+            List<Entry> entries = new ArrayList<>(topic.getValue().live.values());
+            entries.sort((a, b) -> Long.compare(a.id, b.id));
+            for (Entry entry : entries) {
+                if (!topic.getValue().enqueue(entry)) {
+                    throw new IllegalStateException("Recovered topic " + topic.getKey() + " does not fit into capacity " + capacity);
+                }
+            }
+        }
+        checkpoint();
+    }
+
+    /**
+     * Claimed messages that are not acked within the timeout become available to other consumers again.
+     * 0 disables the lease.
+     */
+    public InMemoryMessageQueue setLeaseTimeout(long millis) {
+        this.leaseTimeoutMillis = millis;
+        return this;
+    }
+
+    private Topic topic(String name) {
+        return topics.computeIfAbsent(name, n -> new Topic(capacity));
+    }
+
+    @Override
+    public long insert(String topic, String data) {
+        Topic t = topic(topic);
+        Entry entry = new Entry(ids.incrementAndGet(), data);
+        t.live.put(entry.id, entry); // before the append, so a checkpoint that misses the record rewrites the entry
+        if (log != null) {
+            try {
+                log.append(WriteAheadLog.INSERT, topic, entry.id, data);
+            } catch (RuntimeException e) {
+                t.live.remove(entry.id);
+                throw e;
+            }
+            checkpointIfNeeded();
+        }
+        if (!t.enqueue(entry)) {
+            t.remove(entry, topic); // undo, so the rejected message is not recovered later
+            throw new IllegalStateException("Topic " + topic + " is full: " + t.ring.capacity() + " pending messages");
+        }
+        listeners.fire(topic);
+        return entry.id;
+    }
+
+    @Override
+    public List<Long> bulkInsert(String topic, List<String> messages) {
+        List<Long> result = new ArrayList<>(messages.size());
+        for (String data : messages) {
+            result.add(insert(topic, data));
+        }
+        return result;
+    }
+
+    @Override
+    public List<QueueMessage> claim(String topic, int batchSize) {
+        Topic t = topic(topic);
+        t.requeueExpired(leaseTimeoutMillis);
+        List<QueueMessage> messages = new ArrayList<>(Math.min(batchSize, 64));
+        long leaseUntil = leaseTimeoutMillis > 0 ? System.currentTimeMillis() + leaseTimeoutMillis : Long.MAX_VALUE;
+        while (messages.size() < batchSize) {
+            Entry entry = t.ring.poll();
+            if (entry == null) break;
+            // The lease is written first, so a sweep that sees CLAIMED never sees the previous, expired lease
+            entry.leaseUntil = leaseUntil;
+            if (STATE.compareAndSet(entry, PENDING, CLAIMED)) { // deleted entries are skipped here
+                t.available.decrement();
+                messages.add(new QueueMessage(entry.id, entry.data));
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public void delete(String topic, Collection<Long> ids) {
+        Topic t = topic(topic);
+        for (Long id : ids) {
+            t.remove(t.live.get(id), topic);
+        }
+    }
+
+    @Override
+    public void reset(String topic, Collection<Long> ids) {
+        Topic t = topic(topic);
+        for (Long id : ids) {
+            t.release(t.live.get(id));
+        }
+        listeners.fire(topic);
+    }
+
+    @Override
+    public void delete(String topic, String data) {
+        Topic t = topic(topic);
+        for (Entry entry : t.live.values()) {
+            if (entry.data.equals(data)) {
+                t.remove(entry, topic);
+            }
+        }
+    }
+
+    @Override
+    public void reset(String topic, String data) {
+        Topic t = topic(topic);
+        for (Entry entry : t.live.values()) {
+            if (entry.data.equals(data)) {
+                t.release(entry);
+            }
+        }
+        listeners.fire(topic);
+    }
+
+    @Override
+    public int getAvailableRecords(String topic) {
+        Topic t = topic(topic);
+        t.requeueExpired(leaseTimeoutMillis);
+        return (int) t.available.sum();
+    }
+
+    @Override
+    public void addInsertListener(String topic, Runnable listener) {
+        listeners.add(topic, listener);
+    }
+
+    @Override
+    public void removeInsertListener(String topic, Runnable listener) {
+        listeners.remove(topic, listener);
+    }
+
+    /**
+     * Forces the write-ahead log to disk (no-op without a log).
+     */
+    public void flush() {
+        if (log != null) {
+            log.flush();
+        }
+    }
+
+    /**
+     * Runs a checkpoint on the calling thread once the log has grown by enough segments, so a long run
+     * does not fill the disk with segments that only hold acked messages.
+     */
+    private void checkpointIfNeeded() {
+        if (log.needsCheckpoint() && checkpointing.compareAndSet(false, true)) {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                checkpointing.set(false);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the live messages into a fresh segment and deletes all older segments.
+     */
+    private void checkpoint() throws IOException {
+        int first = log.startCheckpoint();
+        for (Map.Entry<String, Topic> topic : topics.entrySet()) {
+            for (Entry entry : topic.getValue().live.values()) {
+                log.append(WriteAheadLog.INSERT, topic.getKey(), entry.id, entry.data);
+                if (entry.state == DELETED) {
+                    // removed meanwhile, its REMOVE may be in a segment that is about to be deleted
+                    log.append(WriteAheadLog.REMOVE, topic.getKey(), entry.id, null);
+                }
+            }
+        }
+        log.finishCheckpoint(first);
+    }
+
+    @Override
+    public void close() {
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    private static final AtomicIntegerFieldUpdater<Entry> STATE = AtomicIntegerFieldUpdater.newUpdater(Entry.class, "state");
+
+    private static final class Entry {
+        private final long id;
+        private final String data;
+        volatile int state = PENDING; // not private, the field updater needs access
+        private volatile long leaseUntil;
+
+        Entry(long id, String data) {
+            this.id = id;
+            this.data = data;
+        }
+    }
+
+    private final class Topic {
+        private final RingBuffer<Entry> ring;
+        private final Map<Long, Entry> live = new ConcurrentHashMap<>(); // pending and claimed, for id and data lookups
+        private final LongAdder available = new LongAdder();
+        private final AtomicLong lastSweep = new AtomicLong();
+
+        Topic(int capacity) {
+            this.ring = new RingBuffer<>(capacity);
+        }
+
+        boolean enqueue(Entry entry) {
+            if (!ring.offer(entry)) {
+                return false;
+            }
+            available.increment();
+            return true;
+        }
+
+        void remove(Entry entry, String topic) {
+            if (entry == null) return;
+            int previous = STATE.getAndSet(entry, DELETED);
+            if (previous == DELETED) return;
+            if (previous == PENDING) {
+                available.decrement(); // the ring slot is skipped when it is polled
+            }
+            live.remove(entry.id);
+            if (log != null) {
+                log.append(WriteAheadLog.REMOVE, topic, entry.id, null);
+                checkpointIfNeeded();
+            }
+        }
+
+        void release(Entry entry) {
+            if (entry != null && STATE.compareAndSet(entry, CLAIMED, PENDING) && !enqueue(entry)) {
+                entry.state = CLAIMED; // ring is full, stays claimed until the next release or sweep
+                throw new IllegalStateException("Topic is full: " + ring.capacity() + " pending messages");
+            }
+        }
+
+        /**
+         * Puts claimed messages whose lease has expired back on the ring, at most once per sweep interval.
+         */
+        void requeueExpired(long lease) {
+            if (lease <= 0) return;
+
+            long now = System.currentTimeMillis();
+            long last = lastSweep.get();
+            if (now - last < Math.min(lease, 1000) || !lastSweep.compareAndSet(last, now)) return;
+
+            for (Entry entry : live.values()) {
+                if (entry.state == CLAIMED && entry.leaseUntil < now) {
+                    release(entry);
+                }
+            }
+        }
+    }
+}
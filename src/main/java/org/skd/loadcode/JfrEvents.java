@@ -0,0 +1,105 @@
+package org.skd.loadcode;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Custom Flight Recorder event for the generator monitor, defined at runtime with jdk.jfr.EventFactory
+ * so the library still compiles and runs on Java 8. Each event covers one monitor window, which keeps
+ * the iteration path free of JFR calls. Events cost nothing unless a recording is running, e.g.
+ * {@code -XX:StartFlightRecording}; they show up as "LoadCode Generator Window" in JDK Mission Control.
+ */
+final class JfrEvents {
+    // Field order of the event, values passed to commit must follow it
+    static final String[] FIELDS = {"activeUsers", "throughput", "schedulerLagP99", "schedulerLagMax",
+            "processCpu", "gcTime", "gcCount", "queueDepth", "saturated"};
+    private static final Class<?>[] TYPES = {int.class, double.class, long.class, long.class,
+            double.class, long.class, long.class, int.class, boolean.class};
+    // jdk.jfr unit annotation and its value per field, null for none
+    private static final String[][] UNITS = {null, null, {"jdk.jfr.Timespan", "NANOSECONDS"}, {"jdk.jfr.Timespan", "NANOSECONDS"},
+            {"jdk.jfr.Percentage", null}, {"jdk.jfr.Timespan", "MILLISECONDS"}, null, null, null};
+
+    private final MethodHandle newEvent;
+    private final MethodHandle begin;
+    private final MethodHandle end;
+    private final MethodHandle set;
+    private final MethodHandle commit;
+
+    private JfrEvents(Object factory) throws ReflectiveOperationException {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        Class<?> eventType = Class.forName("jdk.jfr.Event");
+        this.newEvent = lookup.findVirtual(Class.forName("jdk.jfr.EventFactory"), "newEvent", MethodType.methodType(eventType))
+                .bindTo(factory);
+        this.begin = lookup.findVirtual(eventType, "begin", MethodType.methodType(void.class));
+        this.end = lookup.findVirtual(eventType, "end", MethodType.methodType(void.class));
+        this.set = lookup.findVirtual(eventType, "set", MethodType.methodType(void.class, int.class, Object.class));
+        this.commit = lookup.findVirtual(eventType, "commit", MethodType.methodType(void.class));
+    }
+
+    /**
+     * Registers the event type, or returns null when the JVM has no Flight Recorder API.
+     */
+    static JfrEvents create() {
+        try {
+            Class<?> annotationType = Class.forName("jdk.jfr.AnnotationElement");
+            Constructor<?> annotation = annotationType.getConstructor(Class.class, Object.class);
+            List<Object> annotations = new ArrayList<>();
+            annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Name"), "org.skd.loadcode.GeneratorWindow"));
+            annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Label"), "LoadCode Generator Window"));
+            annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[]{"LoadCode"}));
+            annotations.add(annotation.newInstance(Class.forName("jdk.jfr.StackTrace"), false));
+
+            Class<?> descriptorType = Class.forName("jdk.jfr.ValueDescriptor");
+            Constructor<?> descriptor = descriptorType.getConstructor(Class.class, String.class, List.class);
+            Constructor<?> marker = annotationType.getConstructor(Class.class);
+            List<Object> fields = new ArrayList<>();
+            for (int i = 0; i < FIELDS.length; i++) {
+                List<Object> unit = new ArrayList<>();
+                if (UNITS[i] != null) {
+                    Class<?> unitType = Class.forName(UNITS[i][0]);
+                    unit.add(UNITS[i][1] == null ? marker.newInstance(unitType) : annotation.newInstance(unitType, UNITS[i][1]));
+                }
+                fields.add(descriptor.newInstance(TYPES[i], FIELDS[i], unit));
+            }
+
+            Class<?> factoryType = Class.forName("jdk.jfr.EventFactory");
+            Object factory = factoryType.getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+            return new JfrEvents(factory);
+        } catch (Throwable e) {
+            return null; // Java 8 or a JVM without JFR
+        }
+    }
+
+    /**
+     * Starts the event of a new window.
+     */
+    Object begin() {
+        try {
+            Object event = newEvent.invoke();
+            begin.invoke(event);
+            return event;
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    /**
+     * Ends the window's event with the given values, in the order of {@link #FIELDS}.
+     */
+    void commit(Object event, Object... values) {
+        if (event == null) return;
+        try {
+            end.invoke(event);
+            for (int i = 0; i < values.length; i++) {
+                set.invoke(event, i, values[i]);
+            }
+            commit.invoke(event);
+        } catch (Throwable e) {
+            // Never let profiling break a test
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.skd.loadcode;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Holds one {@link LatencyHistogram} per virtual user slot so writers never share a histogram
+ * (up to the slot count, after which slots are reused). Readers merge all slots into a
+ * {@link HistogramSnapshot} without stopping the writers.
+ */
+public class LatencyRecorder {
+    private static final int DEFAULT_SLOTS = 256;
+
+    private final AtomicReferenceArray<LatencyHistogram> histograms;
+
+    public LatencyRecorder() {
+        this(DEFAULT_SLOTS);
+    }
+
+    public LatencyRecorder(int slots) {
+        this.histograms = new AtomicReferenceArray<>(slots);
+    }
+
+    /**
+     * Histogram for the given slot, created on first use. Call once per virtual user, not per sample.
+     */
+    public LatencyHistogram histogram(int slot) {
+        int index = Math.floorMod(slot, histograms.length());
+        LatencyHistogram histogram = histograms.get(index);
+        if (histogram == null) {
+            histograms.compareAndSet(index, null, new LatencyHistogram());
+            histogram = histograms.get(index);
+        }
+        return histogram;
+    }
+
+    public HistogramSnapshot snapshot() {
+        long[] counts = new long[LatencyHistogram.BUCKET_COUNT];
+        long totalNanos = 0;
+        for (int i = 0; i < histograms.length(); i++) {
+            LatencyHistogram histogram = histograms.get(i);
+            if (histogram != null) {
+                totalNanos += histogram.addTo(counts);
+            }
+        }
+        return new HistogramSnapshot(counts, totalNanos);
+    }
+
+    // Only while nothing is recording, the slots keep their histograms
+    void reset() {
+        for (int i = 0; i < histograms.length(); i++) {
+            LatencyHistogram histogram = histograms.get(i);
+            if (histogram != null) {
+                histogram.reset();
+            }
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package org.skd.loadcode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Number of virtual users over time, as a list of stages run one after the other.
+ * <pre>
+ * new LoadProfile()
+ *         .rampTo(100, 60)      // 0 to 100 users over a minute
+ *         .hold(300)
+ *         .spike(500, 30)       // 500 users for 30s, then back to 100
+ *         .stepTo(50, 120)
+ *         .sine(25, 60, 600);   // 50 +/- 25 users, one wave per minute, for 10 minutes
+ * </pre>
+ * Each stage starts from the user count the previous one ended at.
+ */
+public class LoadProfile {
+    private static final long SINE_RESOLUTION_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final List<Stage> stages = new ArrayList<>();
+
+    /**
+     * Changes the number of users linearly to the given count over the given time.
+     */
+    public LoadProfile rampTo(int users, int seconds) {
+        return add(new Ramp(users, seconds, "ramp to " + users));
+    }
+
+    /**
+     * Keeps the current number of users.
+     */
+    public LoadProfile hold(int seconds) {
+        return add(new Constant(-1, false, seconds, "hold"));
+    }
+
+    /**
+     * Jumps to the given number of users at once and keeps it.
+     */
+    public LoadProfile stepTo(int users, int seconds) {
+        return add(new Constant(users, false, seconds, "step to " + users));
+    }
+
+    /**
+     * Jumps to the given number of users for the given time, then returns to the previous count.
+     */
+    public LoadProfile spike(int users, int seconds) {
+        return add(new Constant(users, true, seconds, "spike to " + users));
+    }
+
+    /**
+     * Oscillates around the current number of users, for soak tests with a daily-like pattern.
+     */
+    public LoadProfile sine(int amplitude, int periodSeconds, int seconds) {
+        return add(new Sine(amplitude, periodSeconds, seconds, "sine +/-" + amplitude));
+    }
+
+    /**
+     * Renames the last stage, used to label its report.
+     */
+    public LoadProfile label(String label) {
+        if (stages.isEmpty()) {
+            throw new IllegalStateException("Add a stage before labelling it.");
+        }
+        stages.get(stages.size() - 1).label = label;
+        return this;
+    }
+
+    private LoadProfile add(Stage stage) {
+        if (stage.durationNanos < 0) {
+            throw new IllegalArgumentException("Stage duration must not be negative.");
+        }
+        stage.from = stages.isEmpty() ? 0 : stages.get(stages.size() - 1).endUsers();
+        stages.add(stage);
+        return this;
+    }
+
+    int stageCount() {
+        return stages.size();
+    }
+
+    String label(int stage) {
+        return stages.get(stage).label;
+    }
+
+    long durationNanos(int stage) {
+        return stages.get(stage).durationNanos;
+    }
+
+    long totalDurationNanos() {
+        long total = 0;
+        for (Stage stage : stages) {
+            total += stage.durationNanos;
+        }
+        return total;
+    }
+
+    /**
+     * Users the given stage wants at the given time since the stage started.
+     */
+    int usersAt(int stage, long elapsedNanos) {
+        return Math.max(0, stages.get(stage).usersAt(elapsedNanos));
+    }
+
+    /**
+     * Time since the stage started at which the user count next differs from current.
+     * Exact for ramps and steps; sine waves are sampled.
+     */
+    long nextChangeNanos(int stage, long elapsedNanos, int current) {
+        Stage s = stages.get(stage);
+        return Math.max(elapsedNanos, Math.min(s.nextChangeNanos(elapsedNanos, current), s.durationNanos));
+    }
+
+    int endUsers() {
+        return stages.isEmpty() ? 0 : stages.get(stages.size() - 1).endUsers();
+    }
+
+    int maxUsers() {
+        int max = 0;
+        for (Stage stage : stages) {
+            max = Math.max(max, stage.maxUsers());
+        }
+        return max;
+    }
+
+    private abstract static class Stage {
+        final long durationNanos;
+        String label;
+        int from;
+
+        Stage(int seconds, String label) {
+            this.durationNanos = TimeUnit.SECONDS.toNanos(seconds);
+            this.label = label;
+        }
+
+        abstract int usersAt(long elapsedNanos);
+
+        abstract long nextChangeNanos(long elapsedNanos, int current);
+
+        abstract int endUsers();
+
+        abstract int maxUsers();
+    }
+
+    private static final class Ramp extends Stage {
+        private final int to;
+
+        Ramp(int to, int seconds, String label) {
+            super(seconds, label);
+            this.to = to;
+        }
+
+        // Rounded away from the starting count, so the first user of a ramp from 0 starts right away
+        // and user k starts at (k - 1) / N of the ramp time
+        @Override
+        int usersAt(long elapsedNanos) {
+            if (elapsedNanos >= durationNanos) return to;
+            double users = from + (double) (to - from) * elapsedNanos / durationNanos;
+            return (int) (to > from ? Math.ceil(users) : Math.floor(users));
+        }
+
+        @Override
+        long nextChangeNanos(long elapsedNanos, int current) {
+            if (to == from || durationNanos == 0) return durationNanos;
+            // The count changes just after the line crosses the current integer
+            return (long) ((double) (current - from) * durationNanos / (to - from)) + 1;
+        }
+
+        @Override
+        int endUsers() {
+            return to;
+        }
+
+        @Override
+        int maxUsers() {
+            return Math.max(from, to);
+        }
+    }
+
+    private static final class Constant extends Stage {
+        private final int users; // -1 keeps the starting count
+        private final boolean returnAfter;
+
+        Constant(int users, boolean returnAfter, int seconds, String label) {
+            super(seconds, label);
+            this.users = users;
+            this.returnAfter = returnAfter;
+        }
+
+        @Override
+        int usersAt(long elapsedNanos) {
+            return users < 0 ? from : users;
+        }
+
+        @Override
+        long nextChangeNanos(long elapsedNanos, int current) {
+            return current == usersAt(elapsedNanos) ? durationNanos : elapsedNanos;
+        }
+
+        @Override
+        int endUsers() {
+            return users < 0 || returnAfter ? from : users;
+        }
+
+        @Override
+        int maxUsers() {
+            return Math.max(from, users);
+        }
+    }
+
+    private static final class Sine extends Stage {
+        private final int amplitude;
+        private final long periodNanos;
+
+        Sine(int amplitude, int periodSeconds, int seconds, String label) {
+            super(seconds, label);
+            if (periodSeconds <= 0) {
+                throw new IllegalArgumentException("Sine period must be greater than 0.");
+            }
+            this.amplitude = amplitude;
+            this.periodNanos = TimeUnit.SECONDS.toNanos(periodSeconds);
+        }
+
+        @Override
+        int usersAt(long elapsedNanos) {
+            return (int) Math.round(from + amplitude * Math.sin(2 * Math.PI * elapsedNanos / periodNanos));
+        }
+
+        @Override
+        long nextChangeNanos(long elapsedNanos, int current) {
+            return current == usersAt(elapsedNanos) ? elapsedNanos + SINE_RESOLUTION_NANOS : elapsedNanos;
+        }
+
+        @Override
+        int endUsers() {
+            return from;
+        }
+
+        @Override
+        int maxUsers() {
+            return from + Math.abs(amplitude);
+        }
+    }
+}
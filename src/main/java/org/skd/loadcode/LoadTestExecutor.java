@@ -1,20 +1,114 @@
 package org.skd.loadcode;
 
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.lang.reflect.Method;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 public class LoadTestExecutor {
     private int threads = 1;
     private int iterations = 1; // Use -1 for infinite iterations
     private int rampUpTime = 0; // in seconds
     private int testDuration = 0; // 0 means no duration limit
-    private Method testMethod;
-    private Object testInstance;
+    private final ScenarioMix<LoadTestExecutor> scenarios = new ScenarioMix<>();
     private final AtomicInteger totalIterations = new AtomicInteger(0);
     private volatile boolean stopTest = false;
+    private long endTime = Long.MAX_VALUE; // wall clock millis at which the test duration is over
+    private int drainTimeout = 10; // seconds running iterations get to finish at the deadline or shutdown
+
+    // Completion: the scheduler and every started user hold a party, the run is over when none are left
+    private final AtomicInteger openParties = new AtomicInteger(1);
+    private final AtomicBoolean finishing = new AtomicBoolean(false);
+    private final CompletableFuture<HistogramSnapshot> completion = new CompletableFuture<>();
+    private final Object shutdownLock = new Object();
+    private boolean shutDown = false; // guarded by shutdownLock
+
+    // Closed model: one scheduler starts and retires virtual users following the load profile
+    private LoadProfile loadProfile; // null means ramp to threads over rampUpTime and hold
+    private final Deque<VirtualUser> users = new ArrayDeque<>(); // newest last, guarded by this
+    private final List<StageReport> stageReports = new CopyOnWriteArrayList<>();
+
+    // Open model: iterations are released on a fixed timeline instead of back to back
+    private volatile double arrivalRate = 0; // target iterations per second, 0 means closed model
+    private double startArrivalRate = 0; // rate at the beginning of the arrival ramp
+    private int arrivalRampTime = 0; // in seconds
+    private long lateStartThresholdNanos = TimeUnit.MILLISECONDS.toNanos(1);
+    private final LongAdder droppedIterations = new LongAdder();
+    private final LongAdder lateStarts = new LongAdder();
+    private final LongAdder cancelledIterations = new LongAdder(); // async iterations cancelled at the drain timeout
+    private static final int TERMINATION_GRACE = 5; // seconds interrupted iterations get to end before the journal closes
+    private final AtomicInteger arrivalRateChanges = new AtomicInteger(0);
+    private volatile Thread arrivalScheduler;
+
+    // Every iteration is timed into a per virtual user histogram of its scenario
+    private final AtomicInteger userSequence = new AtomicInteger(0);
+    private final List<ScenarioMix<LoadTestExecutor>.User> workerUsers = new ArrayList<>(); // not torn down yet, guarded by itself
+    private final ThreadLocal<ScenarioMix<LoadTestExecutor>.User> workerUser = new ThreadLocal<>();
+    private Scenario<LoadTestExecutor> beforeAll; // once per run, outside the measured window
+    private Scenario<LoadTestExecutor> afterAll;
+    private int reportInterval = 0; // in seconds, 0 disables the periodic report
+    private Path reportFile; // optional CSV copy of the periodic report
+    private int metricsPort = -1; // -1 disables the Prometheus endpoint
+    private MetricsServer metricsServer;
+    private final AtomicInteger runningUsers = new AtomicInteger(0); // users inside their loop right now
+    private final AtomicInteger busyWorkers = new AtomicInteger(0); // open model workers running an arrival
+    private boolean virtualThreads = false;
+    private RateLimiter rateLimiter; // optional pacing shared by all threads
+    private SampleJournal sampleJournal; // optional raw sample log
+    private ErrorPolicy errorPolicy = new ErrorPolicy();
+    private boolean selfMonitoring = true;
+    private GeneratorMonitor generatorMonitor;
+
+    // Async scenarios: an iteration lasts until its future completes
+    private int maxInFlightPerUser = 1;
+    private int maxInFlight = 0; // across all users, 0 means no cap
+    private Semaphore globalPermits;
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+    private final Object inFlightDrained = new Object();
+    private final Set<CompletableFuture<?>> pendingFutures = ConcurrentHashMap.newKeySet();
+
+    // Warm-up before the measured phase, its samples are kept apart
+    private static final int WARM_UP_LIMIT = 60; // seconds, upper limit of a warm-up that only waits for stability
+    private static final int STABLE_WINDOWS = 5; // one second windows compared by the stability check
+    private int warmUpDuration = 0; // in seconds, 0 means no time limit
+    private int warmUpIterations = 0; // over all users, 0 means no iteration limit
+    private double warmUpRate = 0; // 0 means the arrival rate (open model) or unpaced (closed model)
+    private double warmUpStability = 0; // allowed variation, 0 disables the stability check
+    private volatile boolean warmingUp = false;
+    private volatile HistogramSnapshot warmUpSnapshot; // null until a warm-up has finished
+    private final Queue<ScenarioMix<LoadTestExecutor>.User> warmedUsers = new ConcurrentLinkedQueue<>(); // closed model, taken by the first users
 
     private ThreadPoolExecutor executor;
 
@@ -38,107 +132,1240 @@ public class LoadTestExecutor {
         return this;
     }
 
+    /**
+     * Runs the scenarios for this many seconds before the measured phase. The warm-up samples are kept
+     * apart (see getWarmUpSnapshot), and the measured phase starts with every counter at zero.
+     */
+    public LoadTestExecutor setWarmUp(int seconds) {
+        this.warmUpDuration = seconds;
+        return this;
+    }
+
+    /**
+     * Ends the warm-up after this many iterations over all users, or at the warm-up duration if that comes first.
+     */
+    public LoadTestExecutor setWarmUpIterations(int iterations) {
+        this.warmUpIterations = iterations;
+        return this;
+    }
+
+    /**
+     * Paces the warm-up. By default it runs at the arrival rate in the open model. In the closed model it
+     * runs unpaced, or at the rate limiter if one is set.
+     */
+    public LoadTestExecutor setWarmUpRate(double iterationsPerSecond) {
+        this.warmUpRate = iterationsPerSecond;
+        return this;
+    }
+
+    /**
+     * Ends the warm-up early once throughput and mean latency are stable. Each must vary by at most
+     * maxVariation (e.g. 0.05 for 5%) around its mean over the last 5 seconds. The warm-up duration stays
+     * the upper limit, and without a duration or an iteration count the limit is 60 seconds.
+     */
+    public LoadTestExecutor setWarmUpUntilStable(double maxVariation) {
+        this.warmUpStability = maxVariation;
+        return this;
+    }
+
+    /**
+     * Time iterations still running at the end of the test duration (or at shutdown) get to finish
+     * before they are interrupted, and outstanding async iterations are cancelled.
+     */
+    public LoadTestExecutor setDrainTimeout(int seconds) {
+        this.drainTimeout = seconds;
+        return this;
+    }
+
+    /**
+     * Drives the number of virtual users through the stages of the profile instead of
+     * setThreads/setRampUp, and ends the test after the last stage. A report is printed per stage.
+     */
+    public LoadTestExecutor setLoadProfile(LoadProfile loadProfile) {
+        this.loadProfile = loadProfile;
+        return this;
+    }
+
+    /**
+     * Switches to the open model: iterations are started at a constant arrival rate
+     * (iterations per second) no matter how long the previous ones take.
+     * The thread count becomes the size of the worker pool that runs them and
+     * iterations (when not -1) caps the total number of iterations scheduled.
+     */
+    public LoadTestExecutor setArrivalRate(double iterationsPerSecond) {
+        return setArrivalRate(iterationsPerSecond, iterationsPerSecond, 0);
+    }
+
+    /**
+     * Open model with a linear ramp from startRate to targetRate over rampTime seconds.
+     */
+    public LoadTestExecutor setArrivalRate(double startRate, double targetRate, int rampTime) {
+        if (startRate < 0 || targetRate <= 0) {
+            throw new IllegalArgumentException("Arrival rate must be greater than 0.");
+        }
+        this.startArrivalRate = startRate;
+        this.arrivalRate = targetRate;
+        this.arrivalRampTime = rampTime;
+        return this;
+    }
+
+    /**
+     * Changes the arrival rate of a running open model test. The timeline continues from now at the new rate.
+     */
+    public LoadTestExecutor changeArrivalRate(double iterationsPerSecond) {
+        if (iterationsPerSecond <= 0) {
+            throw new IllegalArgumentException("Arrival rate must be greater than 0.");
+        }
+        this.arrivalRate = iterationsPerSecond;
+        arrivalRateChanges.incrementAndGet();
+        Thread scheduler = arrivalScheduler;
+        if (scheduler != null) {
+            LockSupport.unpark(scheduler); // it may be parked on an arrival far away at the old rate
+        }
+        return this;
+    }
+
+    /**
+     * Iterations starting later than this after their intended start are counted as late starts.
+     */
+    public LoadTestExecutor setLateStartThreshold(int millis) {
+        this.lateStartThresholdNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        return this;
+    }
+
+    /**
+     * Prints throughput and latency percentiles for the last interval every given number of seconds.
+     */
+    public LoadTestExecutor setReportInterval(int seconds) {
+        this.reportInterval = seconds;
+        return this;
+    }
+
+    /**
+     * Appends each periodic report as a CSV line to the given file. Needs a report interval.
+     */
+    public LoadTestExecutor setReportFile(Path reportFile) {
+        this.reportFile = reportFile;
+        return this;
+    }
+
+    /**
+     * Serves live metrics in the Prometheus text format on http://host:port/metrics while the test runs.
+     * Port 0 picks a free port.
+     */
+    public LoadTestExecutor setMetricsPort(int port) {
+        this.metricsPort = port;
+        return this;
+    }
+
+    /**
+     * Runs each virtual user (or open model worker) on a virtual thread when the JVM supports them
+     * (Java 21+). Blocking scenarios then no longer need one platform thread per user.
+     * Falls back to platform threads on older JVMs.
+     */
+    public LoadTestExecutor setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    /**
+     * Paces the iterations of all threads (closed model) through the given limiter.
+     */
+    public LoadTestExecutor setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        return this;
+    }
+
+    /**
+     * Writes every sample to the journal for offline analysis with {@link SampleReport}.
+     * The journal is closed when the test shuts down.
+     */
+    public LoadTestExecutor setSampleJournal(SampleJournal sampleJournal) {
+        this.sampleJournal = sampleJournal;
+        return this;
+    }
+
+    /**
+     * Watches the generator itself (scheduler lag, GC, process CPU, worker queue) while the test runs
+     * and warns when it is saturated, see {@link GeneratorMonitor}. On by default.
+     */
+    public LoadTestExecutor setSelfMonitoring(boolean selfMonitoring) {
+        this.selfMonitoring = selfMonitoring;
+        return this;
+    }
+
+    /**
+     * How failed iterations are reported and throttled: stack trace sampling, back-off and circuit breaker.
+     * Failed iterations never stop a user.
+     */
+    public LoadTestExecutor setErrorPolicy(ErrorPolicy errorPolicy) {
+        this.errorPolicy = errorPolicy;
+        return this;
+    }
+
+    /**
+     * Maximum async iterations each virtual user keeps in flight. The default of 1 makes a user
+     * wait for its iteration to complete, like a synchronous one; raise it to let a few threads
+     * drive many concurrent requests.
+     */
+    public LoadTestExecutor setMaxInFlightPerUser(int maxInFlightPerUser) {
+        if (maxInFlightPerUser < 1) {
+            throw new IllegalArgumentException("Max in flight per user must be at least 1.");
+        }
+        this.maxInFlightPerUser = maxInFlightPerUser;
+        return this;
+    }
+
+    /**
+     * Cap on iterations in flight across the whole test, 0 for no cap.
+     * In the open model arrivals over the cap are dropped.
+     */
+    public LoadTestExecutor setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * Creates a separate instance of each scenario class (addTest/addScenario with a class) for every
+     * virtual user, or every open model worker, so fields can hold per-user state such as tokens or
+     * cookies without locks. Classes implementing {@link UserLifecycle} get setup and teardown calls.
+     * Lambda scenarios stay shared.
+     */
+    public LoadTestExecutor setInstancePerUser(boolean instancePerUser) {
+        scenarios.setInstancePerUser(instancePerUser);
+        return this;
+    }
+
+    /**
+     * Runs once when the test starts, before any user, e.g. to create test data.
+     * If it fails the test does not start and the future returned by start() fails.
+     */
+    public LoadTestExecutor setBeforeAll(Scenario<LoadTestExecutor> beforeAll) {
+        this.beforeAll = beforeAll;
+        return this;
+    }
+
+    /**
+     * Runs once after the last user has finished and the latency has been printed.
+     */
+    public LoadTestExecutor setAfterAll(Scenario<LoadTestExecutor> afterAll) {
+        this.afterAll = afterAll;
+        return this;
+    }
+
     public LoadTestExecutor addTest(Class<?> testClass, String methodName) throws Exception {
-        this.testInstance = testClass.getDeclaredConstructor().newInstance();
-        this.testMethod = testClass.getMethod(methodName, LoadTestExecutor.class);
+        scenarios.clear();
+        return addScenario(testClass, methodName, 1);
+    }
+
+    public LoadTestExecutor addTest(Scenario<LoadTestExecutor> scenario) {
+        scenarios.clear();
+        return addScenario("default", scenario, 1);
+    }
+
+    /**
+     * Adds a scenario to the workload mix. Each iteration picks one scenario at random in proportion
+     * to its weight, e.g. weights 70, 25 and 5 for browse, search and checkout.
+     * All scenarios share the threads, rate limiter and duration of this executor.
+     */
+    public LoadTestExecutor addScenario(Class<?> testClass, String methodName, double weight) throws Exception {
+        Method testMethod = testClass.getMethod(methodName, LoadTestExecutor.class);
+        // A method returning e.g. CompletableFuture is async, timed until the future completes
+        scenarios.add(methodName, new ScenarioMix.Binding<>(testClass, testMethod, LoadTestExecutor.class), weight);
+        return this;
+    }
+
+    public LoadTestExecutor addScenario(String name, Scenario<LoadTestExecutor> scenario, double weight) {
+        scenarios.add(name, scenario, weight);
+        return this;
+    }
+
+    public LoadTestExecutor addScenario(Scenario<LoadTestExecutor> scenario, double weight) {
+        return addScenario("scenario-" + (scenarios.size() + 1), scenario, weight);
+    }
+
+    public LoadTestExecutor addAsyncTest(AsyncScenario<LoadTestExecutor> scenario) {
+        scenarios.clear();
+        return addAsyncScenario("default", scenario, 1);
+    }
+
+    public LoadTestExecutor addAsyncScenario(String name, AsyncScenario<LoadTestExecutor> scenario, double weight) {
+        scenarios.addAsync(name, scenario, weight);
         return this;
     }
 
+    /**
+     * Starts the test without blocking, see {@link #startAsync()} to wait for the end of the run.
+     */
     public void start() {
+        startAsync();
+    }
+
+    /**
+     * Starts the test without blocking. The returned future completes with the latency of the whole run
+     * as soon as the last iteration is done and the executor has shut down.
+     */
+    public CompletableFuture<HistogramSnapshot> startAsync() {
         System.out.println("Starting Load Test...");
-        this.executor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
-        executor.allowCoreThreadTimeOut(true);
-        executor.setKeepAliveTime(10, TimeUnit.SECONDS);
+        if (beforeAll != null) {
+            try {
+                beforeAll.run(this);
+            } catch (Exception e) {
+                e.printStackTrace();
+                completion.completeExceptionally(e);
+                return completion;
+            }
+        }
+        if (maxInFlight > 0) {
+            globalPermits = new Semaphore(maxInFlight);
+        }
+        scenarios.setErrorPolicy(errorPolicy);
+        createExecutor();
+        if (warmUpDuration > 0 || warmUpIterations > 0 || warmUpStability > 0) {
+            Thread warmUp = new Thread(() -> {
+                warmUp();
+                startMeasurement();
+            }, "loadcode-warm-up");
+            warmUp.setDaemon(true);
+            warmUp.start();
+        } else {
+            startMeasurement();
+        }
+        return completion;
+    }
 
-        long startTime = System.currentTimeMillis();
-        long endTime = (testDuration > 0) ? startTime + (testDuration * 1000L) : Long.MAX_VALUE;
+    private void createExecutor() {
+        if (arrivalRate > 0) {
+            // Bounded pool: when every worker is busy and the backlog is full the iteration is dropped
+            this.executor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS, new ArrayBlockingQueue<>(threads), workerThreadFactory());
+            executor.prestartAllCoreThreads();
+        } else {
+            // One thread per virtual user, threads of retired users are reused by new ones
+            this.executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 10, TimeUnit.SECONDS, new SynchronousQueue<>(), threadFactory());
+        }
+    }
 
-        for (int i = 0; i < threads; i++) {
-            addThread(i, endTime);
+    // Everything from here on is measured
+    private void startMeasurement() {
+        if (selfMonitoring) {
+            generatorMonitor = new GeneratorMonitor(this);
+        }
+        if (sampleJournal != null) {
+            openJournal();
+        }
+        if (metricsPort >= 0) {
+            try {
+                metricsServer = new MetricsServer(this, metricsPort);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (reportInterval > 0) {
+            startReporter();
+        }
+        if (arrivalRate > 0) {
+            startOpenModel();
+            return;
         }
 
-        // **New logic: Automatically shut down when all iterations finish**
-        monitorAndShutdown();
+        long startTime = System.currentTimeMillis();
+        endTime = (testDuration > 0) ? startTime + (testDuration * 1000L) : Long.MAX_VALUE;
+
+        LoadProfile profile = (loadProfile != null) ? loadProfile : new LoadProfile().rampTo(threads, rampUpTime);
+        Thread scheduler = new Thread(() -> runProfile(profile, loadProfile != null), "loadcode-profile-scheduler");
+        scheduler.setDaemon(true);
+        scheduler.start();
+
+        if (testDuration > 0) {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(testDuration);
+            Thread watchdog = new Thread(() -> enforceDeadline(deadline), "loadcode-deadline");
+            watchdog.setDaemon(true);
+            watchdog.start();
+        }
     }
 
-    private void addThread(int threadIndex, long endTime) {
-        executor.submit(() -> {
+    /**
+     * Runs the warm-up users on the executor's own threads until the warm-up is over, then sets its samples
+     * aside and resets the scenario counters. Closed model users keep their per-user state into the measured phase.
+     */
+    private void warmUp() {
+        int users = (arrivalRate <= 0 && loadProfile != null) ? Math.max(1, loadProfile.maxUsers()) : threads;
+        double rate = (warmUpRate > 0) ? warmUpRate : arrivalRate;
+        RateLimiter pacing = (rate > 0) ? new RateLimiter(rate) : rateLimiter;
+        long limit = TimeUnit.SECONDS.toNanos(warmUpDuration > 0 ? warmUpDuration : WARM_UP_LIMIT);
+        if (warmUpDuration <= 0 && warmUpIterations > 0) {
+            limit = Long.MAX_VALUE;
+        }
+        System.out.println("Warming up with " + users + " users" + (pacing != null ? String.format(" at %.1f/s", pacing.getRate()) : "") + "...");
+
+        warmingUp = true;
+        AtomicInteger claimed = new AtomicInteger(0);
+        CountDownLatch done = new CountDownLatch(users);
+        for (int i = 0; i < users; i++) {
             try {
-                int rampUpDelay = (rampUpTime > 0) ? (rampUpTime * 1000) / threads : 0;
-                Thread.sleep(rampUpDelay * threadIndex);
+                executor.execute(() -> runWarmUpUser(pacing, claimed, done));
+            } catch (RejectedExecutionException e) {
+                done.countDown(); // shutting down
+            }
+        }
 
-                int currentIteration = 0;
+        long start = System.nanoTime();
+        String reason = null;
+        Deque<double[]> windows = new ArrayDeque<>(); // throughput and mean latency per second
+        HistogramSnapshot previous = scenarios.snapshot();
+        long previousTime = start;
+        try {
+            while (!done.await(Math.min(TimeUnit.SECONDS.toNanos(1), limit - (System.nanoTime() - start)), TimeUnit.NANOSECONDS)) {
+                long now = System.nanoTime();
+                if (stopTest) {
+                    reason = "stopped";
+                    break;
+                }
+                if (now - start >= limit) {
+                    reason = "time";
+                    break;
+                }
+                if (warmUpStability > 0) {
+                    HistogramSnapshot current = scenarios.snapshot();
+                    HistogramSnapshot interval = current.minus(previous);
+                    windows.addLast(new double[]{interval.getCount() / ((now - previousTime) / 1e9), interval.getMean()});
+                    if (windows.size() > STABLE_WINDOWS) {
+                        windows.removeFirst();
+                    }
+                    if (windows.size() == STABLE_WINDOWS && isStable(windows)) {
+                        reason = "stable";
+                        break;
+                    }
+                    previous = current;
+                    previousTime = now;
+                }
+            }
+            if (reason == null) {
+                reason = stopTest ? "stopped" : "iterations"; // every warm-up user is done
+            }
+            warmingUp = false;
+            done.await(); // running iterations finish, so none of them is recorded after the reset
+        } catch (InterruptedException e) {
+            warmingUp = false;
+            stopTest = true;
+            Thread.currentThread().interrupt();
+            return;
+        }
 
-                while (!stopTest && (iterations == -1 || currentIteration < iterations)) {
-                    if (System.currentTimeMillis() > endTime) break;
+        HistogramSnapshot samples = scenarios.snapshot();
+        long errors = getTotalErrors();
+        warmUpSnapshot = samples;
+        scenarios.reset();
+        System.out.println(String.format("Warm-up finished (%s) after %.1fs: errors=%d %s",
+                reason, (System.nanoTime() - start) / 1e9, errors, samples.summary()));
+    }
 
-                    totalIterations.incrementAndGet();
-                    testMethod.invoke(testInstance, this);
-                    currentIteration++;
+    private boolean isStable(Deque<double[]> windows) {
+        for (int metric = 0; metric < 2; metric++) {
+            double sum = 0;
+            for (double[] window : windows) {
+                sum += window[metric];
+            }
+            double mean = sum / windows.size();
+            if (mean <= 0) return false;
+            double squares = 0;
+            for (double[] window : windows) {
+                squares += (window[metric] - mean) * (window[metric] - mean);
+            }
+            if (Math.sqrt(squares / windows.size()) / mean > warmUpStability) return false;
+        }
+        return true;
+    }
+
+    private void runWarmUpUser(RateLimiter pacing, AtomicInteger claimed, CountDownLatch done) {
+        // Open model workers warm their own thread's user, closed model users are handed to the first measured users
+        ScenarioMix<LoadTestExecutor>.User user = (arrivalRate > 0) ? workerUser() : scenarios.user(userSequence.getAndIncrement());
+        Semaphore permits = scenarios.hasAsync() ? new Semaphore(maxInFlightPerUser) : null;
+        try {
+            user.open(this);
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (arrivalRate <= 0) {
+                user.close(this); // the measured phase starts a fresh one
+            }
+            done.countDown();
+            return;
+        }
+        try {
+            int consecutiveErrors = 0;
+            while (warmingUp && !stopTest) {
+                errorPolicy.awaitClosed();
+                if (pacing != null && !pacing.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                    continue; // see whether the warm-up is over
                 }
+                if (warmUpIterations > 0 && claimed.incrementAndGet() > warmUpIterations) break;
 
-                System.out.println("Thread " + Thread.currentThread().getName() + " finished.");
-            } catch (Exception e) {
+                acquireInFlight(permits);
+                try {
+                    runTracked(user, System.nanoTime(), permits);
+                    consecutiveErrors = 0;
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception | AssertionError e) {
+                    errorPolicy.backOff(++consecutiveErrors);
+                }
+            }
+            if (permits != null) {
+                permits.acquire(maxInFlightPerUser); // outstanding iterations still record warm-up samples
+            }
+        } catch (Exception e) {
+            if (!(stopTest && e instanceof InterruptedException)) {
+                e.printStackTrace();
+            }
+        } finally {
+            if (arrivalRate <= 0) {
+                warmedUsers.add(user);
+            }
+            done.countDown();
+        }
+    }
+
+    /**
+     * Ends the test at the deadline even if an iteration is still running: new iterations stop,
+     * running ones get the drain timeout and are then interrupted.
+     */
+    private void enforceDeadline(long deadline) {
+        try {
+            completion.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            return; // finished before the deadline
+        } catch (TimeoutException e) {
+            if (finishing.get()) return; // the users stopped at the deadline on their own
+            System.out.println("Test duration reached.");
+        } catch (InterruptedException | ExecutionException e) {
+            return;
+        }
+        shutdownService();
+    }
+
+    // The last party to leave ends the run
+    private void leave() {
+        if (openParties.decrementAndGet() == 0) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        if (!finishing.compareAndSet(false, true)) return;
+        // Usually called from the last user's pool thread, which must not wait for its own pool
+        Thread finisher = new Thread(() -> {
+            if (!stopTest) {
+                System.out.println("All iterations completed. Shutting down...");
+            }
+            shutdownService();
+            awaitWorkerTeardown();
+            for (ScenarioMix<LoadTestExecutor>.User user : warmedUsers) {
+                user.close(this); // warmed up but never needed by the measured phase
+            }
+            printLatency();
+            if (afterAll != null) {
+                try {
+                    afterAll.run(this);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            completion.complete(scenarios.snapshot());
+        }, "loadcode-completion");
+        finisher.start();
+    }
+
+    /**
+     * Walks through the stages, waking up exactly when the profile wants another user count.
+     * Stage boundaries are computed from the start of the run so they never drift.
+     */
+    private void runProfile(LoadProfile profile, boolean explicit) {
+        try {
+            followProfile(profile, explicit);
+        } finally {
+            leave();
+        }
+    }
+
+    private void followProfile(LoadProfile profile, boolean explicit) {
+        long stageStart = System.nanoTime();
+        for (int stage = 0; stage < profile.stageCount() && !stopTest; stage++) {
+            HistogramSnapshot before = scenarios.snapshot();
+            long duration = profile.durationNanos(stage);
+            long elapsed;
+            while (!stopTest && (elapsed = System.nanoTime() - stageStart) < duration) {
+                int current = setActiveUsers(profile.usersAt(stage, elapsed));
+                long next = stageStart + profile.nextChangeNanos(stage, elapsed, current);
+                long remaining;
+                while ((remaining = next - System.nanoTime()) > 0 && !stopTest) {
+                    LockSupport.parkNanos(remaining);
+                }
+            }
+            stageStart += duration;
+
+            if (explicit) {
+                StageReport report = new StageReport(stage, profile.label(stage), duration / 1e9,
+                        getActiveUsers(), scenarios.snapshot().minus(before));
+                stageReports.add(report);
+                System.out.println(report);
+            }
+        }
+
+        if (explicit) {
+            if (stopTest) return;
+            System.out.println("Load profile finished.");
+            setActiveUsers(0); // the run completes when the retired users have left
+        } else {
+            setActiveUsers(profile.endUsers());
+        }
+    }
+
+    /**
+     * Starts or retires virtual users until the given number are running. Returns the new count.
+     */
+    private synchronized int setActiveUsers(int target) {
+        while (users.size() < target && !stopTest) {
+            startUser();
+        }
+        while (users.size() > target) {
+            users.pollLast().retired = true; // newest first, it finishes its current iteration
+        }
+        if (arrivalRate <= 0) {
+            threads = users.size();
+        }
+        return users.size();
+    }
+
+    /**
+     * Handle on one running virtual user. Retiring it lets the current iteration finish, then the user exits.
+     */
+    private static final class VirtualUser {
+        volatile boolean retired = false;
+    }
+
+    private void startUser() {
+        VirtualUser vu = new VirtualUser();
+        users.addLast(vu);
+        ScenarioMix<LoadTestExecutor>.User warmed = warmedUsers.poll();
+        ScenarioMix<LoadTestExecutor>.User user = (warmed != null) ? warmed : scenarios.user(userSequence.getAndIncrement());
+        Semaphore permits = scenarios.hasAsync() ? new Semaphore(maxInFlightPerUser) : null;
+        openParties.incrementAndGet();
+        try {
+            executor.submit(() -> runUser(vu, user, permits));
+        } catch (RejectedExecutionException e) {
+            leave(); // shutting down
+        }
+    }
+
+    private void runUser(VirtualUser vu, ScenarioMix<LoadTestExecutor>.User user, Semaphore permits) {
+        try {
+            user.open(this); // per user setup, in parallel with the other users starting
+        } catch (Exception e) {
+            e.printStackTrace();
+            user.close(this);
+            leave();
+            return;
+        }
+        runningUsers.incrementAndGet();
+        try {
+            int currentIteration = 0;
+            int consecutiveErrors = 0;
+
+            while (!stopTest && !vu.retired && (iterations == -1 || currentIteration < iterations)) {
+                if (System.currentTimeMillis() > endTime) break;
+                errorPolicy.awaitClosed();
+                if (rateLimiter != null) {
+                    rateLimiter.acquire();
+                }
+                if (stopTest || System.currentTimeMillis() > endTime) break;
+
+                acquireInFlight(permits);
+                totalIterations.incrementAndGet();
+                try {
+                    runTracked(user, System.nanoTime(), permits);
+                    consecutiveErrors = 0;
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception | AssertionError e) {
+                    // Already counted and reported by the mix, the user carries on
+                    errorPolicy.backOff(++consecutiveErrors);
+                }
+                currentIteration++;
+            }
+
+            if (permits != null) {
+                permits.acquire(maxInFlightPerUser); // wait for this user's outstanding iterations
+            }
+            System.out.println("Thread " + Thread.currentThread().getName() + " finished.");
+        } catch (Exception e) {
+            if (!(stopTest && e instanceof InterruptedException)) { // interrupted at the deadline
                 e.printStackTrace();
             }
+        } finally {
+            runningUsers.decrementAndGet();
+            user.close(this);
+            leave();
+        }
+    }
+
+    private void openJournal() {
+        List<String> names = new ArrayList<>();
+        for (ScenarioStats stats : scenarios.stats()) {
+            names.add(stats.getName());
+        }
+        try {
+            sampleJournal.writeScenarioNames(names);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        scenarios.setJournal(sampleJournal);
+    }
+
+    private void acquireInFlight(Semaphore userPermits) throws InterruptedException {
+        if (userPermits != null) {
+            userPermits.acquire();
+        }
+        if (globalPermits != null) {
+            globalPermits.acquire();
+        }
+    }
+
+    private void releaseInFlight(Semaphore userPermits) {
+        if (globalPermits != null) {
+            globalPermits.release();
+        }
+        if (userPermits != null) {
+            userPermits.release();
+        }
+    }
+
+    /**
+     * Runs one iteration whose in-flight permits are already held, releasing them when it completes.
+     */
+    private void runTracked(ScenarioMix<LoadTestExecutor>.User user, long startNanos, Semaphore userPermits) throws Exception {
+        ScenarioMix.Pending pending;
+        try {
+            pending = user.run(this, startNanos);
+        } catch (Exception | Error e) {
+            releaseInFlight(userPermits);
+            throw e;
+        }
+        if (pending == null) {
+            releaseInFlight(userPermits);
+            return;
+        }
+        // The scenario's own stage, so a cancel at the drain timeout reaches the request behind it
+        CompletableFuture<?> future = pending.scenario;
+        pendingFutures.add(future);
+        inFlight.incrementAndGet();
+        pending.recorded.whenComplete((result, failure) -> {
+            pendingFutures.remove(future);
+            if (inFlight.decrementAndGet() == 0) {
+                synchronized (inFlightDrained) {
+                    inFlightDrained.notifyAll();
+                }
+            }
+            releaseInFlight(userPermits);
         });
     }
 
+    private ThreadFactory threadFactory() {
+        if (!virtualThreads) {
+            return Executors.defaultThreadFactory();
+        }
+        if (!VirtualThreads.isSupported()) {
+            System.err.println("Virtual threads are not supported by this JVM, using platform threads.");
+        }
+        return VirtualThreads.factory("loadcode-vu-");
+    }
+
+    /**
+     * Open model workers tear their user down on their own thread when their run loop ends, as
+     * {@link UserLifecycle} promises.
+     */
+    private ThreadFactory workerThreadFactory() {
+        ThreadFactory factory = threadFactory();
+        return task -> factory.newThread(() -> {
+            try {
+                task.run();
+            } finally {
+                tearDownWorkerUser();
+            }
+        });
+    }
+
+    /**
+     * The calling open model worker's user, created on its first arrival.
+     */
+    private ScenarioMix<LoadTestExecutor>.User workerUser() {
+        ScenarioMix<LoadTestExecutor>.User user = workerUser.get();
+        if (user == null) {
+            user = scenarios.user(userSequence.getAndIncrement());
+            workerUser.set(user);
+            synchronized (workerUsers) {
+                workerUsers.add(user);
+            }
+        }
+        return user;
+    }
+
+    private void tearDownWorkerUser() {
+        ScenarioMix<LoadTestExecutor>.User user = workerUser.get();
+        if (user == null) return;
+        workerUser.remove();
+        user.close(this);
+        synchronized (workerUsers) {
+            workerUsers.remove(user);
+            workerUsers.notifyAll();
+        }
+    }
+
+    /**
+     * The pool reports termination before its workers' last code has run, so wait for their teardown too.
+     */
+    private void awaitWorkerTeardown() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TERMINATION_GRACE);
+        synchronized (workerUsers) {
+            long remaining;
+            while (!workerUsers.isEmpty() && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(workerUsers, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (!workerUsers.isEmpty()) {
+                System.err.println(workerUsers.size() + " open model workers did not finish their teardown.");
+            }
+        }
+    }
+
+    private void startOpenModel() {
+        Thread scheduler = new Thread(this::scheduleArrivals, "loadcode-arrival-scheduler");
+        scheduler.setDaemon(true);
+        arrivalScheduler = scheduler;
+        scheduler.start();
+    }
+
+    /**
+     * Releases iterations on an exact timeline computed from the start of the run,
+     * so a slow system under test never pushes the schedule back.
+     */
+    private void scheduleArrivals() {
+        if (scenarios.isInstancePerUser()) {
+            setUpWorkers();
+        }
+        long startTime = System.nanoTime();
+        long durationNanos = (testDuration > 0) ? TimeUnit.SECONDS.toNanos(testDuration) : Long.MAX_VALUE;
+        long scheduled = 0;
+        int seenChanges = 0;
+        long rebaseOffset = 0; // where the timeline continues after a runtime rate change
+        long rebaseScheduled = 0;
+
+        while (!stopTest && (iterations == -1 || scheduled < iterations)) {
+            int changes = arrivalRateChanges.get();
+            if (changes != seenChanges) {
+                seenChanges = changes;
+                rebaseOffset = System.nanoTime() - startTime;
+                rebaseScheduled = scheduled;
+            }
+            long offset = (seenChanges == 0) ? intendedOffsetNanos(scheduled)
+                    : rebaseOffset + (long) ((scheduled - rebaseScheduled) / arrivalRate * 1_000_000_000L);
+            if (offset >= durationNanos) break;
+
+            long intendedStart = startTime + offset;
+            long remaining;
+            while ((remaining = intendedStart - System.nanoTime()) > 0 && !stopTest && arrivalRateChanges.get() == seenChanges) {
+                LockSupport.parkNanos(remaining);
+            }
+            if (stopTest) break;
+            if (arrivalRateChanges.get() != seenChanges) continue; // recompute this arrival at the new rate
+
+            try {
+                executor.execute(() -> runArrival(intendedStart));
+            } catch (RejectedExecutionException e) {
+                droppedIterations.increment();
+            }
+            scheduled++;
+        }
+
+        System.out.println("All arrivals scheduled. Dropped iterations: " + droppedIterations.sum()
+                + ", late starts: " + lateStarts.sum());
+        finish(); // running arrivals get the drain timeout
+    }
+
+    /**
+     * Sets up the per-user instances of every worker in parallel before the first arrival.
+     * Each task holds its worker at the barrier, so every worker gets exactly one.
+     */
+    private void setUpWorkers() {
+        int workers = executor.getCorePoolSize();
+        CyclicBarrier ready = new CyclicBarrier(workers + 1);
+        for (int i = 0; i < workers; i++) {
+            executor.execute(() -> {
+                try {
+                    workerUser().open(this);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                try {
+                    ready.await();
+                } catch (InterruptedException | BrokenBarrierException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        try {
+            ready.await();
+        } catch (InterruptedException | BrokenBarrierException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Offset from the start of the run at which iteration k (0 based) should begin.
+     * Solves N(t) = k where N is the integral of the (linearly ramped) arrival rate.
+     */
+    private long intendedOffsetNanos(long k) {
+        double r0 = startArrivalRate;
+        double r1 = arrivalRate;
+        double ramp = arrivalRampTime;
+        double rampArrivals = (r0 + r1) * ramp / 2;
+
+        double seconds;
+        if (ramp > 0 && k < rampArrivals) {
+            double a = (r1 - r0) / (2 * ramp);
+            seconds = (a == 0) ? k / r0 : (-r0 + Math.sqrt(r0 * r0 + 4 * a * k)) / (2 * a);
+        } else {
+            seconds = ramp + (k - rampArrivals) / r1;
+        }
+        return (long) (seconds * 1_000_000_000L);
+    }
+
+    private void runArrival(long intendedStart) {
+        if (stopTest) return;
+
+        long actualStart = System.nanoTime();
+        if (actualStart - intendedStart > lateStartThresholdNanos) {
+            lateStarts.increment();
+        }
+
+        if (errorPolicy.isOpen() || (globalPermits != null && !globalPermits.tryAcquire())) {
+            droppedIterations.increment(); // circuit breaker open or too many async iterations outstanding
+            return;
+        }
+        totalIterations.incrementAndGet();
+        busyWorkers.incrementAndGet();
+        try {
+            ScenarioMix<LoadTestExecutor>.User user = workerUser();
+            user.open(this); // only workers added after the start set up here
+            // Measured from the intended start so queueing on the generator side is not hidden
+            runTracked(user, intendedStart, null);
+        } catch (Exception | AssertionError e) {
+            // Already counted and reported by the mix
+        } finally {
+            busyWorkers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Reports the last interval from its own thread; snapshots are copies, so the workers keep recording.
+     */
+    private void startReporter() {
+        Thread reporter = new Thread(() -> {
+            HistogramSnapshot previous = scenarios.snapshot();
+            long previousErrors = getTotalErrors();
+            long previousTime = System.nanoTime();
+            try (PrintWriter file = openReportFile()) {
+                while (!stopTest) {
+                    Thread.sleep(reportInterval * 1000L);
+
+                    HistogramSnapshot current = scenarios.snapshot();
+                    long errors = getTotalErrors();
+                    long now = System.nanoTime();
+                    HistogramSnapshot interval = current.minus(previous);
+                    double throughput = interval.getCount() / ((now - previousTime) / 1e9);
+                    int users = getTotalThreads();
+                    System.out.println(String.format("[report] users=%d throughput=%.1f/s errors=%d %s",
+                            users, throughput, errors - previousErrors, interval.summary()));
+                    GeneratorMonitor monitor = generatorMonitor;
+                    if (monitor != null) {
+                        System.out.println(String.format("[generator] cpu=%.0f%% lag p99=%.2fms gc=%dms saturated=%ds",
+                                monitor.getCpuLoad() * 100, monitor.getLastSchedulerLagP99() / 1e6,
+                                monitor.getGcTimeMillis(), monitor.getSaturatedSeconds()));
+                    }
+                    if (file != null) {
+                        file.println(String.format("%s,%d,%.1f,%d,%d,%.2f,%.2f,%.2f,%.2f,%.2f",
+                                new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()), users, throughput,
+                                errors - previousErrors, interval.getCount(),
+                                interval.getValueAtPercentile(50) / 1e6, interval.getValueAtPercentile(90) / 1e6,
+                                interval.getValueAtPercentile(99) / 1e6, interval.getValueAtPercentile(99.9) / 1e6,
+                                interval.getMax() / 1e6));
+                        file.flush();
+                    }
+
+                    previous = current;
+                    previousErrors = errors;
+                    previousTime = now;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "loadcode-reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    private PrintWriter openReportFile() throws IOException {
+        if (reportFile == null) return null;
+        boolean exists = Files.exists(reportFile);
+        PrintWriter file = new PrintWriter(Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+        if (!exists) {
+            file.println("time,users,throughput,errors,count,p50,p90,p99,p99.9,max");
+        }
+        return file;
+    }
+
+    /**
+     * Starts more virtual users right away (closed model) or grows the worker pool (open model).
+     * With a load profile the scheduler owns the user count and will undo this at its next change.
+     */
     public void addNewThreads(int numberOfThreads) {
         System.out.println("Adding " + numberOfThreads + " new threads...");
+        if (arrivalRate > 0) {
+            resizeWorkerPool(threads + numberOfThreads);
+            executor.prestartAllCoreThreads();
+            return;
+        }
+        synchronized (this) {
+            setActiveUsers(users.size() + numberOfThreads);
+        }
+    }
 
-        int newThreadCount = threads + numberOfThreads;
-        executor.setCorePoolSize(newThreadCount);
-        executor.setMaximumPoolSize(newThreadCount);
-        threads = newThreadCount;
+    /**
+     * Retires the most recently started virtual users (closed model) or shrinks the worker pool (open model).
+     * Retired users finish their current iteration first.
+     */
+    public void removeThreads(int numberOfThreads) {
+        System.out.println("Removing " + numberOfThreads + " threads...");
+        if (arrivalRate > 0) {
+            resizeWorkerPool(Math.max(1, threads - numberOfThreads));
+            return;
+        }
+        synchronized (this) {
+            setActiveUsers(Math.max(0, users.size() - numberOfThreads));
+        }
+    }
 
-        long endTime = (testDuration > 0) ? System.currentTimeMillis() + (testDuration * 1000L) : Long.MAX_VALUE;
-        for (int i = 0; i < numberOfThreads; i++) {
-            addThread(i, endTime);
+    private void resizeWorkerPool(int size) {
+        // Core must never exceed max, so the order depends on the direction
+        if (size > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(size);
+            executor.setCorePoolSize(size);
+        } else {
+            executor.setCorePoolSize(size);
+            executor.setMaximumPoolSize(size);
         }
+        threads = size;
+    }
+
+    /**
+     * Virtual users started and not retired (closed model). Users that ran out of iterations still count.
+     */
+    public synchronized int getActiveUsers() {
+        return users.size();
     }
 
+    /**
+     * Reports of the load profile stages completed so far.
+     */
+    public List<StageReport> getStageReports() {
+        return stageReports;
+    }
+
+    /**
+     * Exact number of virtual users inside their iteration loop (closed model),
+     * or of workers running an arrival (open model).
+     */
     public int getTotalThreads() {
-        return executor.getActiveCount();
+        return arrivalRate > 0 ? busyWorkers.get() : runningUsers.get();
+    }
+
+    /**
+     * Failed iterations over all scenarios.
+     */
+    public long getTotalErrors() {
+        long errors = 0;
+        for (ScenarioStats stats : scenarios.stats()) {
+            errors += stats.getErrors();
+        }
+        return errors;
     }
 
     public int getTotalIterations() {
         return totalIterations.get();
     }
 
-    public void shutdownService() {
-        System.out.println("Shutting down LoadTestExecutor...");
-        stopTest = true;
-        executor.shutdown();
-        try {
-            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
-                executor.shutdownNow();
+    /**
+     * Monitor of the generator itself, null before the start or with self monitoring off.
+     */
+    public GeneratorMonitor getGeneratorMonitor() {
+        return generatorMonitor;
+    }
+
+    // Iterations waiting for an open model worker
+    int getQueueDepth() {
+        ThreadPoolExecutor pool = executor;
+        return (pool == null || arrivalRate <= 0) ? 0 : pool.getQueue().size();
+    }
+
+    int getQueueCapacity() {
+        ThreadPoolExecutor pool = executor;
+        return (pool == null || arrivalRate <= 0) ? 0 : pool.getQueue().size() + pool.getQueue().remainingCapacity();
+    }
+
+    /**
+     * Latency of the warm-up iterations, which are left out of every other statistic. Null without a warm-up.
+     */
+    public HistogramSnapshot getWarmUpSnapshot() {
+        return warmUpSnapshot;
+    }
+
+    public long getDroppedIterations() {
+        return droppedIterations.sum();
+    }
+
+    public long getLateStarts() {
+        return lateStarts.sum();
+    }
+
+    /**
+     * Async iterations that were still outstanding after the drain timeout and got cancelled.
+     */
+    public long getCancelledIterations() {
+        return cancelledIterations.sum();
+    }
+
+    /**
+     * Latency of all completed iterations so far. In the open model latency is
+     * measured from the intended start time.
+     */
+    public HistogramSnapshot getLatencySnapshot() {
+        return scenarios.snapshot();
+    }
+
+    /**
+     * Iterations, errors and latency of each scenario, in the order they were added.
+     */
+    public List<ScenarioStats> getScenarioStats() {
+        return scenarios.stats();
+    }
+
+    public double getMeanLatencyMillis() {
+        return scenarios.snapshot().getMean() / 1_000_000.0;
+    }
+
+    public double getMaxLatencyMillis() {
+        return scenarios.snapshot().getMax() / 1_000_000.0;
+    }
+
+    private void printLatency() {
+        System.out.println("Latency: " + scenarios.snapshot().summary());
+        if (warmUpSnapshot != null) {
+            System.out.println("  Warm-up (not included): " + warmUpSnapshot.summary());
+        }
+        if (scenarios.size() > 1) {
+            for (ScenarioStats stats : scenarios.stats()) {
+                System.out.println("  " + stats.summary());
+            }
+        }
+        for (ScenarioStats stats : scenarios.stats()) {
+            if (stats.getErrors() > 0) {
+                System.out.println("  Errors in " + stats.getName() + ": " + stats.getErrorsByType());
             }
-        } catch (InterruptedException e) {
-            executor.shutdownNow();
+        }
+        if (cancelledIterations.sum() > 0) {
+            System.out.println("  Cancelled at the drain timeout: " + cancelledIterations.sum());
+        }
+        if (generatorMonitor != null) {
+            System.out.println("Generator: " + generatorMonitor.summary());
         }
     }
 
-    public void stop() {
-        this.stopTest = true;
+    /**
+     * Stops new iterations and waits up to the drain timeout for running and async ones,
+     * then interrupts and cancels what is left. Blocks until done; safe to call more than once.
+     */
+    public void shutdownService() {
+        synchronized (shutdownLock) {
+            if (shutDown) return;
+            System.out.println("Shutting down LoadTestExecutor...");
+            stopTest = true;
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainTimeout);
+            if (executor != null) {
+                executor.shutdown();
+                try {
+                    if (!executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                        System.err.println("Interrupting iterations still running after the drain timeout.");
+                        executor.shutdownNow();
+                        // Interrupted iterations still record their samples on the way out
+                        if (!executor.awaitTermination(TERMINATION_GRACE, TimeUnit.SECONDS)) {
+                            System.err.println("Some iterations ignored the interrupt, their samples are not journaled.");
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    executor.shutdownNow();
+                    Thread.currentThread().interrupt();
+                }
+            }
+            awaitInFlight(deadline);
+            if (sampleJournal != null) {
+                scenarios.setJournal(null); // nothing records into it once it is closed
+                sampleJournal.close();
+            }
+            if (metricsServer != null) {
+                metricsServer.close();
+            }
+            if (generatorMonitor != null) {
+                generatorMonitor.close();
+            }
+            shutDown = true;
+        }
     }
 
-    // **New method: Auto-detect completion and shut down**
-    private void monitorAndShutdown() {
-        new Thread(() -> {
-            try {
-                while (!executor.isTerminated()) {
-                    if (iterations != -1 && executor.getActiveCount() == 0) {
-                        System.out.println("All iterations completed. Shutting down...");
-                        shutdownService();
-                        break;
-                    }
-                    Thread.sleep(1000); // Check every second
+    private void awaitInFlight(long deadline) {
+        synchronized (inFlightDrained) {
+            long remaining;
+            while (inFlight.get() > 0 && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(inFlightDrained, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        if (inFlight.get() > 0) {
+            System.err.println("Cancelling " + inFlight.get() + " async iterations still outstanding after the drain timeout.");
+            for (CompletableFuture<?> future : pendingFutures) {
+                if (future.cancel(true)) {
+                    cancelledIterations.increment(); // also recorded as a CancellationException of the scenario
                 }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                System.err.println("Load test monitor interrupted.");
             }
-        }).start();
+        }
+    }
+
+    /**
+     * Async iterations started and not yet completed.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public void stop() {
+        this.stopTest = true;
     }
 }
@@ -1,6 +1,7 @@
 package org.skd.loadcode;
 
 import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -11,8 +12,8 @@ public class LoadTestExecutorWithExService {
     private int iterations = 1; // Use -1 for infinite iterations
     private int rampUpTime = 0; // in seconds
     private int testDuration = 0; // 0 means no duration limit
-    private Method testMethod;
-    private Object testInstance;
+    private int drainTimeout = 10; // seconds running iterations get to finish once the duration is over
+    private Scenario<LoadTestExecutorWithExService> scenario;
     private final AtomicInteger totalIterations = new AtomicInteger(0);
     private volatile boolean stopTest = false;
 
@@ -36,15 +37,30 @@ public class LoadTestExecutorWithExService {
         return this;
     }
 
+    /**
+     * Time iterations still running at the end of the test duration get to finish before they are interrupted.
+     */
+    public LoadTestExecutorWithExService setDrainTimeout(int seconds) {
+        this.drainTimeout = seconds;
+        return this;
+    }
+
     public LoadTestExecutorWithExService addTest(Class<?> testClass, String methodName) throws Exception {
-        this.testInstance = testClass.getDeclaredConstructor().newInstance();
-        this.testMethod = testClass.getMethod(methodName, LoadTestExecutorWithExService.class);
+        Object testInstance = testClass.getDeclaredConstructor().newInstance();
+        Method testMethod = testClass.getMethod(methodName, LoadTestExecutorWithExService.class);
+        this.scenario = Scenario.bind(testInstance, testMethod, LoadTestExecutorWithExService.class);
+        return this;
+    }
+
+    public LoadTestExecutorWithExService addTest(Scenario<LoadTestExecutorWithExService> scenario) {
+        this.scenario = scenario;
         return this;
     }
 
     public void start() {
         System.out.println("Starting Load Test...");
         ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch finished = new CountDownLatch(threads); // the test is over when every thread is done
 
         long startTime = System.currentTimeMillis();
         long endTime = (testDuration > 0) ? startTime + (testDuration * 1000L) : Long.MAX_VALUE;
@@ -64,38 +80,44 @@ public class LoadTestExecutorWithExService {
                         if (System.currentTimeMillis() > endTime) break;
 
                         totalIterations.incrementAndGet();  // Increment total iterations across all threads
-                        testMethod.invoke(testInstance, this); // Execute the test method
+                        scenario.run(this); // Execute the test method
 
                         currentIteration++;  // Increment this thread's iteration count
                     }
-
-                    // Stop the test after completing the iterations
-                    if (iterations != -1 && currentIteration >= iterations) {
-                        stopTest = true;
-                        shutdownService(executor);
-                    }
                 } catch (Exception e) {
-                    e.printStackTrace();
+                    if (!(stopTest && e instanceof InterruptedException)) { // interrupted after the drain timeout
+                        e.printStackTrace();
+                    }
+                } finally {
+                    finished.countDown();
                 }
             });
         }
-
-        if (testDuration > 0) {
-            try {
-                executor.shutdown();
-                executor.awaitTermination(testDuration + 5, TimeUnit.SECONDS);
-            } catch (InterruptedException e) {
-                System.err.println("Load test interrupted.");
+        executor.shutdown(); // no new tasks, the pool exits once every thread is done
+
+        try {
+            boolean done = true;
+            if (testDuration > 0) {
+                done = finished.await(endTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                if (!done) {
+                    // Duration is over: stop new iterations and give the running ones the drain timeout
+                    System.out.println("Test duration reached.");
+                    stopTest = true;
+                    done = finished.await(drainTimeout, TimeUnit.SECONDS);
+                }
+            } else {
+                // If no duration, wait until stopped by the user or iterations completed
+                finished.await();
             }
-        } else {
-            // If no duration, wait indefinitely until stopped by the user or iterations completed
-            try {
-                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
-            } catch (InterruptedException e) {
-                executor.shutdownNow(); // Handle interrupt and shut down immediately
-                Thread.currentThread().interrupt(); // Preserve interrupt status
-                System.err.println("Load test interrupted.");
+            if (!done) {
+                System.err.println("Interrupting iterations still running after the drain timeout.");
+                executor.shutdownNow();
             }
+        } catch (InterruptedException e) {
+            stopTest = true;
+            executor.shutdownNow(); // Handle interrupt and shut down immediately
+            Thread.currentThread().interrupt(); // Preserve interrupt status
+            System.err.println("Load test interrupted.");
         }
 
         System.out.println("Load Test Completed.");
@@ -0,0 +1,124 @@
+package org.skd.loadcode;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Memory-maps the file and keeps only the start offset of each valid row on the heap,
+ * so files larger than the heap can be used. Cells are located by scanning the row on access.
+ */
+class MappedCsvTable extends CsvTable {
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+    private final MappedByteBuffer[] chunks;
+    private final long length;
+    private final byte[] delimiter;
+    private final long[] rowStarts;
+
+    private MappedCsvTable(String[] headers, MappedByteBuffer[] chunks, long length, byte[] delimiter, long[] rowStarts) {
+        super(headers);
+        this.chunks = chunks;
+        this.length = length;
+        this.delimiter = delimiter;
+        this.rowStarts = rowStarts;
+    }
+
+    static MappedCsvTable load(String filePath, String delimiter) throws IOException {
+        MappedByteBuffer[] chunks;
+        long length;
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "r");
+             FileChannel channel = file.getChannel()) {
+            length = channel.size();
+            chunks = new MappedByteBuffer[(int) ((length + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; i++) {
+                long offset = i * CHUNK_SIZE;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(CHUNK_SIZE, length - offset));
+            }
+        } // the mapping stays valid after the channel is closed
+
+        byte[] delim = delimiter.getBytes(StandardCharsets.UTF_8);
+        MappedCsvTable scanner = new MappedCsvTable(new String[0], chunks, length, delim, new long[0]);
+
+        long headerEnd = scanner.lineEnd(0);
+        String[] headers = parseHeaders(scanner.text(0, headerEnd, false), delimiter);
+
+        long[] rowStarts = new long[1024];
+        int rows = 0;
+        long pos = headerEnd + 1;
+        while (pos < length) {
+            long end = scanner.lineEnd(pos);
+            if (scanner.countCells(pos, end, headers.length + 1) == headers.length) { // Skip invalid rows
+                if (rows == rowStarts.length) {
+                    rowStarts = Arrays.copyOf(rowStarts, rows * 2);
+                }
+                rowStarts[rows++] = pos;
+            }
+            pos = end + 1;
+        }
+        return new MappedCsvTable(headers, chunks, length, delim, Arrays.copyOf(rowStarts, rows));
+    }
+
+    @Override
+    int rowCount() {
+        return rowStarts.length;
+    }
+
+    @Override
+    String value(int row, int column) {
+        long start = rowStarts[row];
+        long end = lineEnd(start);
+        for (int c = 0; c < column; c++) {
+            start = nextDelimiter(start, end) + delimiter.length;
+        }
+        long cellEnd = (column == headers().length - 1) ? end : nextDelimiter(start, end);
+        return text(start, cellEnd, true);
+    }
+
+    private byte byteAt(long pos) {
+        return chunks[(int) (pos >>> CHUNK_BITS)].get((int) (pos & (CHUNK_SIZE - 1)));
+    }
+
+    /**
+     * End of the line starting at pos, excluding the line break.
+     */
+    private long lineEnd(long pos) {
+        while (pos < length && byteAt(pos) != '\n') pos++;
+        return pos;
+    }
+
+    private long nextDelimiter(long pos, long end) {
+        for (long i = pos; i <= end - delimiter.length; i++) {
+            if (matches(i)) return i;
+        }
+        return end;
+    }
+
+    private int countCells(long start, long end, int limit) {
+        int count = 1;
+        for (long i = nextDelimiter(start, end); i < end && count < limit; i = nextDelimiter(i + delimiter.length, end)) {
+            count++;
+        }
+        return count;
+    }
+
+    private boolean matches(long pos) {
+        for (int j = 0; j < delimiter.length; j++) {
+            if (byteAt(pos + j) != delimiter[j]) return false;
+        }
+        return true;
+    }
+
+    private String text(long start, long end, boolean trim) {
+        if (end > start && byteAt(end - 1) == '\r') end--;
+        byte[] bytes = new byte[(int) (end - start)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = byteAt(start + i);
+        }
+        return trim ? decode(bytes, 0, bytes.length) : new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,102 @@
+package org.skd.loadcode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Topic based work queue shared between scenarios, e.g. to hand tokens from a producer
+ * scenario to consumer scenarios. Implementations are {@link H2MessageQueue} (SQL, survives
+ * restarts) and {@link InMemoryMessageQueue} (lock-free, in process, optional write-ahead log).
+ */
+public interface MessageQueue extends AutoCloseable {
+
+    /**
+     * Inserts a new message into the given topic and returns its id.
+     */
+    long insert(String topic, String data);
+
+    /**
+     * Inserts all messages and returns their ids in the same order.
+     */
+    List<Long> bulkInsert(String topic, List<String> messages);
+
+    /**
+     * Claims up to batchSize messages. Each message is handed to one consumer until it is
+     * acked, nacked or its lease expires.
+     */
+    List<QueueMessage> claim(String topic, int batchSize);
+
+    /**
+     * Claims up to batchSize messages and returns only their data.
+     */
+    default List<String> read(String topic, int batchSize) {
+        List<QueueMessage> claimed = claim(topic, batchSize);
+        List<String> messages = new ArrayList<>(claimed.size());
+        for (QueueMessage message : claimed) {
+            messages.add(message.getData());
+        }
+        return messages;
+    }
+
+    /**
+     * Deletes every message with this data.
+     */
+    void delete(String topic, String data);
+
+    /**
+     * Makes every message with this data available for processing again.
+     */
+    void reset(String topic, String data);
+
+    void delete(String topic, Collection<Long> ids);
+
+    void reset(String topic, Collection<Long> ids);
+
+    default void delete(String topic, long id) {
+        delete(topic, Collections.singletonList(id));
+    }
+
+    default void reset(String topic, long id) {
+        reset(topic, Collections.singletonList(id));
+    }
+
+    /**
+     * Acknowledges a claimed message, removing it from the topic.
+     */
+    default void ack(String topic, long id) {
+        delete(topic, id);
+    }
+
+    default void ack(String topic, Collection<Long> ids) {
+        delete(topic, ids);
+    }
+
+    /**
+     * Gives a claimed message back, making it immediately available to other consumers.
+     */
+    default void nack(String topic, long id) {
+        reset(topic, id);
+    }
+
+    default void nack(String topic, Collection<Long> ids) {
+        reset(topic, ids);
+    }
+
+    /**
+     * Number of messages waiting to be claimed.
+     */
+    int getAvailableRecords(String topic);
+
+    /**
+     * Registers a callback run after messages are inserted into (or released back to) the topic
+     * through this instance. Used by {@link QueueConsumer} to wake up instead of polling.
+     */
+    void addInsertListener(String topic, Runnable listener);
+
+    void removeInsertListener(String topic, Runnable listener);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,105 @@
+package org.skd.loadcode;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serves the live state of a {@link LoadTestExecutor} in the Prometheus text format on /metrics,
+ * using the JDK's built-in HTTP server. Metrics are computed on the server thread from snapshots,
+ * so scraping never touches or pauses the threads running iterations.
+ */
+public class MetricsServer implements AutoCloseable {
+    // Latency histogram bucket bounds in seconds
+    private static final double[] BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+
+    private final LoadTestExecutor executor;
+    private final HttpServer server;
+
+    public MetricsServer(LoadTestExecutor executor, int port) throws IOException {
+        this.executor = executor;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        System.out.println("Metrics available at http://localhost:" + server.getAddress().getPort() + "/metrics");
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    String render() {
+        StringBuilder out = new StringBuilder(4096);
+        gauge(out, "loadcode_active_users", "Virtual users running (closed model) or busy workers (open model).", executor.getTotalThreads());
+        gauge(out, "loadcode_in_flight", "Async iterations started and not completed.", executor.getInFlight());
+        counter(out, "loadcode_dropped_iterations_total", "Open model iterations dropped because the workers were saturated.", executor.getDroppedIterations());
+        counter(out, "loadcode_late_starts_total", "Open model iterations that started late.", executor.getLateStarts());
+        counter(out, "loadcode_cancelled_iterations_total", "Async iterations cancelled at the drain timeout.", executor.getCancelledIterations());
+        GeneratorMonitor monitor = executor.getGeneratorMonitor();
+        if (monitor != null) {
+            counter(out, "loadcode_generator_saturated_seconds_total", "Seconds the load generator itself was saturated.", monitor.getSaturatedSeconds());
+        }
+
+        List<ScenarioStats> scenarios = executor.getScenarioStats();
+        out.append("# HELP loadcode_iterations_total Iterations started.\n# TYPE loadcode_iterations_total counter\n");
+        for (ScenarioStats stats : scenarios) {
+            out.append("loadcode_iterations_total{scenario=\"").append(escape(stats.getName())).append("\"} ").append(stats.getIterations()).append('\n');
+        }
+        out.append("# HELP loadcode_errors_total Iterations that failed.\n# TYPE loadcode_errors_total counter\n");
+        for (ScenarioStats stats : scenarios) {
+            out.append("loadcode_errors_total{scenario=\"").append(escape(stats.getName())).append("\"} ").append(stats.getErrors()).append('\n');
+        }
+        out.append("# HELP loadcode_errors_by_type_total Iterations that failed, by exception type.\n# TYPE loadcode_errors_by_type_total counter\n");
+        for (ScenarioStats stats : scenarios) {
+            for (Map.Entry<String, Long> type : stats.getErrorsByType().entrySet()) {
+                out.append("loadcode_errors_by_type_total{scenario=\"").append(escape(stats.getName()))
+                        .append("\",type=\"").append(escape(type.getKey())).append("\"} ").append(type.getValue()).append('\n');
+            }
+        }
+
+        out.append("# HELP loadcode_latency_seconds Iteration latency.\n# TYPE loadcode_latency_seconds histogram\n");
+        for (ScenarioStats stats : scenarios) {
+            String scenario = escape(stats.getName());
+            HistogramSnapshot latency = stats.getLatencySnapshot();
+            for (double bound : BUCKETS) {
+                out.append("loadcode_latency_seconds_bucket{scenario=\"").append(scenario).append("\",le=\"").append(bound).append("\"} ")
+                        .append(latency.getCountAtOrBelow((long) (bound * 1e9))).append('\n');
+            }
+            out.append("loadcode_latency_seconds_bucket{scenario=\"").append(scenario).append("\",le=\"+Inf\"} ").append(latency.getCount()).append('\n');
+            out.append("loadcode_latency_seconds_sum{scenario=\"").append(scenario).append("\"} ").append(latency.getMean() * latency.getCount() / 1e9).append('\n');
+            out.append("loadcode_latency_seconds_count{scenario=\"").append(scenario).append("\"} ").append(latency.getCount()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append("\n# TYPE ").append(name).append(" gauge\n")
+                .append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append("\n# TYPE ").append(name).append(" counter\n")
+                .append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
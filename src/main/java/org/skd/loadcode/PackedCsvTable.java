@@ -0,0 +1,98 @@
+package org.skd.loadcode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Keeps the raw UTF-8 bytes of the file in one array plus an int offset per cell,
+ * so a row costs 4 bytes per column plus 4 for its end on top of its text. Limited to files below 2 GB.
+ */
+class PackedCsvTable extends CsvTable {
+    private final byte[] data;
+    private final int[] bounds; // per row: start of each cell followed by the end of the line
+    private final int stride;
+    private final int delimiterLength;
+    private final int rows;
+
+    private PackedCsvTable(String[] headers, byte[] data, int[] bounds, int rows, int delimiterLength) {
+        super(headers);
+        this.data = data;
+        this.bounds = bounds;
+        this.stride = headers.length + 1;
+        this.rows = rows;
+        this.delimiterLength = delimiterLength;
+    }
+
+    static PackedCsvTable load(String filePath, String delimiter) throws IOException {
+        byte[] data = Files.readAllBytes(Paths.get(filePath));
+        byte[] delim = delimiter.getBytes(StandardCharsets.UTF_8);
+
+        int headerEnd = lineEnd(data, 0);
+        String[] headers = parseHeaders(new String(data, 0, trimCr(data, 0, headerEnd), StandardCharsets.UTF_8), delimiter);
+        int stride = headers.length + 1;
+
+        int[] bounds = new int[stride * 1024];
+        int[] cells = new int[stride];
+        int rows = 0;
+        int pos = headerEnd + 1;
+        while (pos < data.length) {
+            int end = lineEnd(data, pos);
+            int lineEnd = trimCr(data, pos, end);
+
+            int count = 0;
+            cells[count++] = pos;
+            for (int i = pos; i <= lineEnd - delim.length && count <= headers.length; i++) {
+                if (matches(data, i, delim)) {
+                    if (count < headers.length) cells[count] = i + delim.length;
+                    count++;
+                    i += delim.length - 1;
+                }
+            }
+
+            if (count == headers.length) { // Skip invalid rows
+                if ((rows + 1) * stride > bounds.length) {
+                    bounds = Arrays.copyOf(bounds, bounds.length * 2);
+                }
+                System.arraycopy(cells, 0, bounds, rows * stride, headers.length);
+                bounds[rows * stride + headers.length] = lineEnd;
+                rows++;
+            }
+            pos = end + 1;
+        }
+        return new PackedCsvTable(headers, data, Arrays.copyOf(bounds, rows * stride), rows, delim.length);
+    }
+
+    @Override
+    int rowCount() {
+        return rows;
+    }
+
+    @Override
+    String value(int row, int column) {
+        int base = row * stride;
+        int start = bounds[base + column];
+        int end = (column == stride - 2) ? bounds[base + column + 1] : bounds[base + column + 1] - delimiterLength;
+        return decode(data, start, end);
+    }
+
+    private static int lineEnd(byte[] data, int from) {
+        for (int i = from; i < data.length; i++) {
+            if (data[i] == '\n') return i;
+        }
+        return data.length;
+    }
+
+    private static int trimCr(byte[] data, int start, int end) {
+        return (end > start && data[end - 1] == '\r') ? end - 1 : end;
+    }
+
+    private static boolean matches(byte[] data, int pos, byte[] delim) {
+        for (int j = 0; j < delim.length; j++) {
+            if (data[pos + j] != delim[j]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,146 @@
+package org.skd.loadcode;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Prefetching consumer for one topic. A single background fetcher claims large batches into a
+ * bounded local buffer, and any number of threads take messages from it. When the topic is empty
+ * the fetcher backs off exponentially and is woken up as soon as a producer inserts, so idle
+ * consumers cost neither database queries nor CPU.
+ * <pre>
+ * QueueConsumer tokens = new QueueConsumer(queue, "tokens", 100, 1000);
+ * QueueMessage message = tokens.take();
+ * tokens.ack(message);
+ * </pre>
+ * Buffered messages are claimed, so with a lease timeout the buffer should be drained well within it.
+ */
+public class QueueConsumer implements Iterable<QueueMessage>, AutoCloseable {
+    private static final long MIN_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final MessageQueue queue;
+    private final String topic;
+    private final int batchSize;
+    private final BlockingQueue<QueueMessage> buffer;
+    private final Thread fetcher;
+    private final Runnable wakeUp;
+    private volatile boolean closed = false;
+
+    public QueueConsumer(MessageQueue queue, String topic, int batchSize, int bufferSize) {
+        this.queue = queue;
+        this.topic = topic;
+        this.batchSize = batchSize;
+        this.buffer = new ArrayBlockingQueue<>(Math.max(bufferSize, batchSize));
+        this.fetcher = new Thread(this::fetch, "loadcode-consumer-" + topic);
+        this.fetcher.setDaemon(true);
+        this.wakeUp = () -> LockSupport.unpark(fetcher);
+        queue.addInsertListener(topic, wakeUp);
+        fetcher.start();
+    }
+
+    private void fetch() {
+        long backoff = MIN_BACKOFF_NANOS;
+        while (!closed) {
+            int space = buffer.remainingCapacity();
+            if (space == 0) {
+                LockSupport.parkNanos(this, MIN_BACKOFF_NANOS); // consumers are behind
+                continue;
+            }
+
+            List<QueueMessage> claimed = queue.claim(topic, Math.min(batchSize, space));
+            if (claimed.isEmpty()) {
+                LockSupport.parkNanos(this, backoff); // woken early by an insert
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_NANOS);
+                continue;
+            }
+            backoff = MIN_BACKOFF_NANOS;
+            buffer.addAll(claimed); // only this thread adds, so the space is still there
+        }
+    }
+
+    /**
+     * Waits for the next message. Returns null if the consumer is closed.
+     */
+    public QueueMessage take() throws InterruptedException {
+        QueueMessage message;
+        while ((message = buffer.poll(100, TimeUnit.MILLISECONDS)) == null) {
+            if (closed) return null;
+        }
+        return message;
+    }
+
+    /**
+     * Waits up to the timeout for the next message, returns null if none arrived.
+     */
+    public QueueMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return buffer.poll(timeout, unit);
+    }
+
+    public void ack(QueueMessage message) {
+        queue.ack(topic, message.getId());
+    }
+
+    public void nack(QueueMessage message) {
+        queue.nack(topic, message.getId());
+    }
+
+    /**
+     * Blocking iterator that ends when the consumer is closed.
+     */
+    @Override
+    public Iterator<QueueMessage> iterator() {
+        return new Iterator<QueueMessage>() {
+            private QueueMessage next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public QueueMessage next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                QueueMessage message = next;
+                next = null;
+                return message;
+            }
+        };
+    }
+
+    /**
+     * Stops the fetcher and hands buffered messages back to the topic.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        queue.removeInsertListener(topic, wakeUp);
+        LockSupport.unpark(fetcher);
+        try {
+            fetcher.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<QueueMessage> unconsumed = new ArrayList<>();
+        buffer.drainTo(unconsumed);
+        List<Long> ids = new ArrayList<>(unconsumed.size());
+        for (QueueMessage message : unconsumed) {
+            ids.add(message.getId());
+        }
+        queue.nack(topic, ids);
+    }
+}
@@ -0,0 +1,27 @@
+package org.skd.loadcode;
+
+/**
+ * A message claimed from a queue topic. The id is needed to ack or nack it.
+ */
+public class QueueMessage {
+    private final long id;
+    private final String data;
+
+    public QueueMessage(long id, String data) {
+        this.id = id;
+        this.data = data;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return id + ":" + data;
+    }
+}
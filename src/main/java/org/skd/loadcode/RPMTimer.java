@@ -1,37 +1,40 @@
 package org.skd.loadcode;
 
 
+/**
+ * Paces callers to a target number of requests per minute.
+ * Backed by a lock-free {@link RateLimiter}, so threads do not queue behind a monitor.
+ */
 public class RPMTimer {
-    private final int targetRPM; // Target RPM (requests per minute)
-    private final long targetIntervalMillis; // Interval between requests in milliseconds
-    private long lastRequestTime = System.currentTimeMillis();
+    private final RateLimiter limiter;
+    private volatile double targetRPM; // Target RPM (requests per minute)
 
     public RPMTimer(int rpm) {
+        this((double) rpm);
+    }
+
+    public RPMTimer(double rpm) {
         if (rpm <= 0) {
             throw new IllegalArgumentException("RPM must be greater than 0.");
         }
         this.targetRPM = rpm;
-        this.targetIntervalMillis = 60_000 / rpm; // Calculate the interval between requests
+        this.limiter = new RateLimiter(rpm / 60.0);
     }
 
-    // Synchronized sleep method to control access across threads
-    public synchronized void sleep() {
-        long now = System.currentTimeMillis();
-        long elapsedTime = now - lastRequestTime;
-        long sleepTime = targetIntervalMillis - elapsedTime;
+    // Waits until the next request slot, without holding any lock
+    public void sleep() {
+        limiter.acquire();
+    }
 
-        if (sleepTime > 0) {
-            try {
-                Thread.sleep(sleepTime);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+    public void setRPM(double rpm) {
+        if (rpm <= 0) {
+            throw new IllegalArgumentException("RPM must be greater than 0.");
         }
-
-        lastRequestTime = System.currentTimeMillis(); // Update the last request time
+        limiter.setRate(rpm / 60.0);
+        this.targetRPM = rpm;
     }
 
-    public synchronized int getCurrentRPM() {
-        return targetRPM;
+    public int getCurrentRPM() {
+        return (int) Math.round(targetRPM);
     }
 }
@@ -0,0 +1,130 @@
+package org.skd.loadcode;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free token bucket. Each caller reserves the next free slot on a nanoTime based schedule
+ * with a single CAS and then parks outside of any lock until its slot is reached, so the achieved
+ * rate does not depend on monitor handoff between threads.
+ * Rates are fractional permits per second and can be changed while the test is running.
+ */
+public class RateLimiter {
+    private final AtomicLong nextFreeNanos; // start time of the next permit when the bucket is empty
+    private volatile long intervalNanos;
+    private volatile int burst;
+
+    public RateLimiter(double permitsPerSecond) {
+        this(permitsPerSecond, 1);
+    }
+
+    /**
+     * @param burst number of permits that can be taken back to back after the limiter has been idle
+     */
+    public RateLimiter(double permitsPerSecond, int burst) {
+        setRate(permitsPerSecond);
+        setBurst(burst);
+        this.nextFreeNanos = new AtomicLong(System.nanoTime());
+    }
+
+    public static RateLimiter perMinute(double permitsPerMinute) {
+        return new RateLimiter(permitsPerMinute / 60.0);
+    }
+
+    public void setRate(double permitsPerSecond) {
+        if (!(permitsPerSecond > 0)) {
+            throw new IllegalArgumentException("Rate must be greater than 0.");
+        }
+        this.intervalNanos = Math.max(1, Math.round(TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+    }
+
+    public double getRate() {
+        return (double) TimeUnit.SECONDS.toNanos(1) / intervalNanos;
+    }
+
+    public void setBurst(int burst) {
+        if (burst < 1) {
+            throw new IllegalArgumentException("Burst must be at least 1.");
+        }
+        this.burst = burst;
+    }
+
+    /**
+     * Blocks until a permit is available.
+     */
+    public void acquire() {
+        long deadline = System.nanoTime() + reserve();
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Waits for a permit if one is free within the timeout. Otherwise returns false at once, without taking one.
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) {
+        long timeoutNanos = unit.toNanos(timeout);
+        long interval = intervalNanos;
+        long burstWindow = (burst - 1) * interval;
+        long start;
+        while (true) {
+            long now = System.nanoTime();
+            long next = nextFreeNanos.get();
+            start = Math.max(next, now - burstWindow);
+            if (start - now > timeoutNanos) {
+                return false;
+            }
+            if (nextFreeNanos.compareAndSet(next, start + interval)) {
+                break;
+            }
+        }
+        long remaining;
+        while ((remaining = start - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes a permit only if one is available right now.
+     */
+    public boolean tryAcquire() {
+        long interval = intervalNanos;
+        long burstWindow = (burst - 1) * interval;
+        while (true) {
+            long now = System.nanoTime();
+            long next = nextFreeNanos.get();
+            long start = Math.max(next, now - burstWindow);
+            if (start - now > 0) {
+                return false;
+            }
+            if (nextFreeNanos.compareAndSet(next, start + interval)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Reserves the next permit and returns how long the caller has to wait for it in nanoseconds.
+     */
+    private long reserve() {
+        long interval = intervalNanos;
+        long burstWindow = (burst - 1) * interval;
+        while (true) {
+            long now = System.nanoTime();
+            long next = nextFreeNanos.get();
+            long start = Math.max(next, now - burstWindow); // unused idle time refills up to burst permits
+            if (nextFreeNanos.compareAndSet(next, start + interval)) {
+                return start - now;
+            }
+        }
+    }
+}
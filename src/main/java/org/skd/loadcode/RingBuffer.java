@@ -0,0 +1,76 @@
+package org.skd.loadcode;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free multi-producer/multi-consumer ring buffer (Vyukov's sequence-per-slot design).
+ * Producers and consumers each claim a slot with one CAS on their own cursor.
+ */
+class RingBuffer<E> {
+    private final int mask;
+    private final AtomicReferenceArray<E> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong(); // next slot to poll
+    private final AtomicLong tail = new AtomicLong(); // next slot to offer
+
+    RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1; // round up to a power of two
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds the element, returns false if the buffer is full.
+     */
+    boolean offer(E element) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) (position & mask);
+            long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.lazySet(index, element);
+                    sequences.set(index, position + 1); // publishes the element to consumers
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false; // slot still holds an element from the previous lap
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest element, returns null if the buffer is empty.
+     */
+    E poll() {
+        while (true) {
+            long position = head.get();
+            int index = (int) (position & mask);
+            long diff = sequences.get(index) - (position + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    E element = slots.get(index);
+                    slots.lazySet(index, null);
+                    sequences.set(index, position + mask + 1); // frees the slot for the next lap
+                    return element;
+                }
+            } else if (diff < 0) {
+                return null; // nothing published yet
+            }
+        }
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
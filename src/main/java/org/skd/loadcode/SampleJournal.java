@@ -0,0 +1,243 @@
+package org.skd.loadcode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Append-only binary log of every sample, for analysis after the run with {@link SampleReport}.
+ * Each sample is a fixed 32 byte record: start timestamp (epoch nanos), duration (nanos),
+ * scenario id, status and thread id. The file starts with a 16 byte header; scenario names
+ * are kept next to it in a ".scenarios" file.
+ * <p>
+ * Samples go into one of a fixed set of buffer stripes, picked by thread id, so direct memory stays
+ * bounded however many (virtual) threads record. A thread owns a stripe only while it writes a record;
+ * full buffers are handed to a background writer that appends them to a {@link FileChannel}, so recording
+ * never waits on the disk. If the writer falls behind by more than the pending buffer limit, samples are
+ * dropped and counted instead. Samples recorded while or after the journal closes are dropped and counted.
+ */
+public class SampleJournal implements AutoCloseable {
+    public static final int MAGIC = 0x4C434A31; // "LCJ1"
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 32;
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_ERROR = 1;
+
+    private static final int DEFAULT_BUFFER_RECORDS = 2048; // 64 KB per stripe
+    private static final int DEFAULT_MAX_PENDING_BUFFERS = 256;
+    private static final int DEFAULT_STRIPES = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final Path file;
+    private final FileChannel channel;
+    private final int bufferBytes;
+    private final long epochOffsetNanos = System.currentTimeMillis() * 1_000_000L - System.nanoTime();
+    private final BlockingQueue<ByteBuffer> full;
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final Stripe[] stripes;
+    private final LongAdder droppedSamples = new LongAdder(); // the writer was behind
+    private final LongAdder lateSamples = new LongAdder(); // recorded while or after closing
+    private final Thread writer;
+    private volatile boolean closing = false; // no more samples are taken
+    private volatile boolean closed = false; // the writer can stop once the queue is empty
+
+    public SampleJournal(Path file) throws IOException {
+        this(file, DEFAULT_BUFFER_RECORDS, DEFAULT_MAX_PENDING_BUFFERS);
+    }
+
+    public SampleJournal(Path file, int bufferRecords, int maxPendingBuffers) throws IOException {
+        this(file, bufferRecords, maxPendingBuffers, DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes number of buffers threads record into, twice the processors by default. Direct memory
+     *                is bounded by (stripes + maxPendingBuffers) * bufferRecords * 32 bytes.
+     */
+    public SampleJournal(Path file, int bufferRecords, int maxPendingBuffers, int stripes) throws IOException {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("At least one stripe is needed.");
+        }
+        this.file = file;
+        this.bufferBytes = bufferRecords * RECORD_SIZE;
+        this.full = new ArrayBlockingQueue<>(maxPendingBuffers);
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(RECORD_SIZE).putLong(System.currentTimeMillis()).flip();
+        write(header);
+
+        this.writer = new Thread(this::writeLoop, "loadcode-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Records one sample. startNanos is a {@link System#nanoTime()} value, stored as epoch nanos.
+     * Samples recorded after close are counted as dropped.
+     */
+    public void record(int scenario, long startNanos, long durationNanos, int status) {
+        if (closing) {
+            lateSamples.increment();
+            return;
+        }
+        long threadId = Thread.currentThread().getId();
+        Stripe stripe = acquire(threadId);
+        try {
+            if (closing) { // close took this stripe's buffer while we waited for it
+                lateSamples.increment();
+                return;
+            }
+            if (stripe.buffer == null) {
+                stripe.buffer = newBuffer();
+            }
+            ByteBuffer buffer = stripe.buffer;
+            buffer.putLong(epochOffsetNanos + startNanos)
+                    .putLong(durationNanos)
+                    .putInt(scenario)
+                    .putInt(status)
+                    .putLong(threadId);
+            if (!buffer.hasRemaining()) {
+                handOff(stripe);
+            }
+        } finally {
+            stripe.inUse.set(false);
+        }
+    }
+
+    /**
+     * Samples not written, because the writer was behind or they were recorded after close.
+     */
+    public long getDroppedSamples() {
+        return droppedSamples.sum() + lateSamples.sum();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Writes the names of the scenario ids used in the records.
+     */
+    public void writeScenarioNames(List<String> names) throws IOException {
+        List<String> lines = new ArrayList<>(names.size());
+        for (int i = 0; i < names.size(); i++) {
+            lines.add(i + "," + names.get(i));
+        }
+        Files.write(scenariosFile(file), lines, StandardCharsets.UTF_8);
+    }
+
+    static Path scenariosFile(Path journal) {
+        return Paths.get(journal.toString() + ".scenarios");
+    }
+
+    /**
+     * Takes the thread's home stripe, or the next free one when another thread holds it.
+     */
+    private Stripe acquire(long threadId) {
+        int index = (int) (threadId % stripes.length);
+        while (true) {
+            for (int i = 0; i < stripes.length; i++) {
+                Stripe stripe = stripes[(index + i) % stripes.length];
+                if (stripe.inUse.compareAndSet(false, true)) {
+                    return stripe;
+                }
+            }
+            Thread.yield(); // every stripe is busy, more recording threads than processors are running
+        }
+    }
+
+    private ByteBuffer newBuffer() {
+        ByteBuffer buffer = free.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(bufferBytes);
+    }
+
+    private void handOff(Stripe stripe) {
+        ByteBuffer buffer = stripe.buffer;
+        buffer.flip();
+        if (full.offer(buffer)) {
+            stripe.buffer = newBuffer();
+        } else {
+            droppedSamples.add(buffer.remaining() / RECORD_SIZE); // writer is behind, never block the caller
+            buffer.clear();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (!closed || !full.isEmpty()) {
+                ByteBuffer buffer = full.poll(100, TimeUnit.MILLISECONDS);
+                if (buffer == null) continue;
+                write(buffer);
+                buffer.clear();
+                free.offer(buffer);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Writes out the partly filled stripes and everything pending, then closes the file.
+     * Each stripe is taken over only once the thread writing into it has finished its record.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closing = true;
+        try {
+            for (Stripe stripe : stripes) {
+                while (!stripe.inUse.compareAndSet(false, true)) {
+                    Thread.yield();
+                }
+                ByteBuffer buffer = stripe.buffer;
+                stripe.buffer = null;
+                stripe.inUse.set(false); // later writers see closing and drop their sample
+                if (buffer != null && buffer.position() > 0) {
+                    buffer.flip();
+                    full.put(buffer);
+                }
+            }
+            closed = true;
+            writer.join();
+            channel.force(false);
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (droppedSamples.sum() > 0) {
+            System.err.println("Sample journal dropped " + droppedSamples.sum() + " samples, the disk could not keep up.");
+        }
+    }
+
+    private static final class Stripe {
+        final AtomicBoolean inUse = new AtomicBoolean(false);
+        ByteBuffer buffer; // only touched by the thread holding inUse, allocated on first use
+    }
+}
@@ -0,0 +1,223 @@
+package org.skd.loadcode;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Offline report over a {@link SampleJournal}. The journal is streamed in chunks and folded into
+ * per time bucket, per scenario histograms, so memory depends on the run length and bucket size,
+ * not on the number of samples.
+ * <pre>
+ * java -cp loadcode.jar org.skd.loadcode.SampleReport samples.bin 10 report.csv report.html
+ * </pre>
+ */
+public class SampleReport {
+    private static final int CHUNK_RECORDS = 32 * 1024;
+
+    private final long bucketNanos;
+    private final Map<Integer, String> scenarioNames = new HashMap<>();
+    private final TreeMap<Long, Map<Integer, Bucket>> timeline = new TreeMap<>(); // bucket start -> scenario -> stats
+    private final Map<Integer, Bucket> totals = new TreeMap<>();
+    private long samples = 0;
+
+    private SampleReport(int bucketSeconds) {
+        this.bucketNanos = bucketSeconds * 1_000_000_000L;
+    }
+
+    public static SampleReport read(Path journal, int bucketSeconds) throws IOException {
+        SampleReport report = new SampleReport(bucketSeconds);
+        report.readScenarioNames(journal);
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(SampleJournal.HEADER_SIZE);
+            readFully(channel, header);
+            if (header.getInt(0) != SampleJournal.MAGIC || header.getInt(4) != SampleJournal.RECORD_SIZE) {
+                throw new IOException(journal + " is not a sample journal");
+            }
+
+            ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_RECORDS * SampleJournal.RECORD_SIZE);
+            while (channel.read(chunk) > 0 || chunk.position() > 0) {
+                chunk.flip();
+                while (chunk.remaining() >= SampleJournal.RECORD_SIZE) {
+                    long timestamp = chunk.getLong();
+                    long duration = chunk.getLong();
+                    int scenario = chunk.getInt();
+                    int status = chunk.getInt();
+                    chunk.getLong(); // thread id
+                    report.add(timestamp, duration, scenario, status);
+                }
+                boolean partial = chunk.hasRemaining();
+                chunk.compact();
+                if (partial && channel.position() == channel.size()) break; // truncated last record
+            }
+        }
+        return report;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new IOException("Unexpected end of journal");
+        }
+    }
+
+    private void readScenarioNames(Path journal) throws IOException {
+        Path names = SampleJournal.scenariosFile(journal);
+        if (!Files.exists(names)) return;
+        for (String line : Files.readAllLines(names, StandardCharsets.UTF_8)) {
+            int comma = line.indexOf(',');
+            if (comma > 0) {
+                scenarioNames.put(Integer.parseInt(line.substring(0, comma)), line.substring(comma + 1));
+            }
+        }
+    }
+
+    private void add(long timestamp, long duration, int scenario, int status) {
+        long bucketStart = timestamp - Math.floorMod(timestamp, bucketNanos);
+        timeline.computeIfAbsent(bucketStart, b -> new TreeMap<>())
+                .computeIfAbsent(scenario, s -> new Bucket())
+                .add(duration, status);
+        totals.computeIfAbsent(scenario, s -> new Bucket()).add(duration, status);
+        samples++;
+    }
+
+    private String name(int scenario) {
+        return scenarioNames.getOrDefault(scenario, "scenario-" + scenario);
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * One row per time bucket and scenario: count, errors, throughput and latency percentiles in ms.
+     */
+    public void writeCsv(Path file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.println("time,scenario,count,errors,throughput,p50,p90,p99,p99.9,max");
+            for (Map.Entry<Long, Map<Integer, Bucket>> bucket : timeline.entrySet()) {
+                for (Map.Entry<Integer, Bucket> scenario : bucket.getValue().entrySet()) {
+                    Bucket stats = scenario.getValue();
+                    HistogramSnapshot latency = stats.snapshot();
+                    out.println(String.join(",", time(bucket.getKey()), name(scenario.getKey()),
+                            Long.toString(stats.count), Long.toString(stats.errors),
+                            format(stats.count / (bucketNanos / 1e9)),
+                            millis(latency.getValueAtPercentile(50)), millis(latency.getValueAtPercentile(90)),
+                            millis(latency.getValueAtPercentile(99)), millis(latency.getValueAtPercentile(99.9)),
+                            millis(latency.getMax())));
+                }
+            }
+        }
+    }
+
+    /**
+     * Summary per scenario followed by the latency and error timeline, as a single self-contained page.
+     */
+    public void writeHtml(Path file) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("<!DOCTYPE html><html><head><meta charset=\"utf-8\"><title>LoadCode report</title><style>"
+                    + "body{font-family:sans-serif}table{border-collapse:collapse;margin-bottom:2em}"
+                    + "td,th{border:1px solid #ccc;padding:2px 8px;text-align:right}.error{background:#fdd}"
+                    + "</style></head><body>\n");
+            out.write("<h1>LoadCode report</h1><p>" + samples + " samples, " + (bucketNanos / 1_000_000_000L) + "s buckets</p>\n");
+
+            out.write("<h2>Summary</h2><table><tr><th>scenario</th><th>count</th><th>errors</th>"
+                    + "<th>p50 ms</th><th>p90 ms</th><th>p99 ms</th><th>p99.9 ms</th><th>max ms</th></tr>\n");
+            for (Map.Entry<Integer, Bucket> scenario : totals.entrySet()) {
+                writeRow(out, null, scenario.getKey(), scenario.getValue());
+            }
+            out.write("</table>\n");
+
+            out.write("<h2>Timeline</h2><table><tr><th>time</th><th>scenario</th><th>count</th><th>errors</th>"
+                    + "<th>p50 ms</th><th>p90 ms</th><th>p99 ms</th><th>p99.9 ms</th><th>max ms</th></tr>\n");
+            for (Map.Entry<Long, Map<Integer, Bucket>> bucket : timeline.entrySet()) {
+                for (Map.Entry<Integer, Bucket> scenario : bucket.getValue().entrySet()) {
+                    writeRow(out, time(bucket.getKey()), scenario.getKey(), scenario.getValue());
+                }
+            }
+            out.write("</table></body></html>\n");
+        }
+    }
+
+    private void writeRow(BufferedWriter out, String time, int scenario, Bucket stats) throws IOException {
+        HistogramSnapshot latency = stats.snapshot();
+        out.write(stats.errors > 0 ? "<tr class=\"error\">" : "<tr>");
+        if (time != null) out.write("<td>" + time + "</td>");
+        out.write("<td>" + escape(name(scenario)) + "</td><td>" + stats.count + "</td><td>" + stats.errors + "</td>"
+                + "<td>" + millis(latency.getValueAtPercentile(50)) + "</td><td>" + millis(latency.getValueAtPercentile(90)) + "</td>"
+                + "<td>" + millis(latency.getValueAtPercentile(99)) + "</td><td>" + millis(latency.getValueAtPercentile(99.9)) + "</td>"
+                + "<td>" + millis(latency.getMax()) + "</td></tr>\n");
+    }
+
+    public void printSummary() {
+        System.out.println(samples + " samples");
+        for (Map.Entry<Integer, Bucket> scenario : totals.entrySet()) {
+            System.out.println(name(scenario.getKey()) + " errors=" + scenario.getValue().errors + " " + scenario.getValue().snapshot().summary());
+        }
+    }
+
+    private static String time(long epochNanos) {
+        return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(epochNanos / 1_000_000L));
+    }
+
+    private static String millis(long nanos) {
+        return format(nanos / 1_000_000.0);
+    }
+
+    private static String format(double value) {
+        return String.format("%.2f", value);
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    /**
+     * Sparse histogram for one bucket, only the latency buckets that were hit are kept.
+     */
+    private static final class Bucket {
+        final Map<Integer, long[]> counts = new HashMap<>();
+        long count;
+        long errors;
+        long totalNanos;
+
+        void add(long duration, int status) {
+            long value = Math.max(0, Math.min(duration, LatencyHistogram.MAX_TRACKABLE_VALUE));
+            counts.computeIfAbsent(LatencyHistogram.indexOf(value), i -> new long[1])[0]++;
+            count++;
+            totalNanos += value;
+            if (status != SampleJournal.STATUS_OK) errors++;
+        }
+
+        HistogramSnapshot snapshot() {
+            long[] dense = new long[LatencyHistogram.BUCKET_COUNT];
+            for (Map.Entry<Integer, long[]> entry : counts.entrySet()) {
+                dense[entry.getKey()] = entry.getValue()[0];
+            }
+            return new HistogramSnapshot(dense, totalNanos);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: SampleReport <journal> [bucketSeconds] [report.csv] [report.html]");
+            return;
+        }
+        int bucketSeconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        SampleReport report = read(Paths.get(args[0]), bucketSeconds);
+        report.printSummary();
+        if (args.length > 2) report.writeCsv(Paths.get(args[2]));
+        if (args.length > 3) report.writeHtml(Paths.get(args[3]));
+    }
+}
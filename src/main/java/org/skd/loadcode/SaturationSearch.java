@@ -0,0 +1,308 @@
+package org.skd.loadcode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the highest load the system under test sustains within a latency and error SLO.
+ * The load (virtual users, or arrivals per second in the open model) is doubled from the start
+ * value until the SLO is violated, then binary searched between the last good and first bad load.
+ * Every step is measured on the running executor, threads are added and removed in place.
+ * <pre>
+ * LoadTestExecutor tgroup = new LoadTestExecutor().addTest(testClass, "testScenario");
+ * SaturationSearch.Result result = new SaturationSearch(tgroup)
+ *         .setP99(250)             // ms
+ *         .setMaxErrorRate(0.01)
+ *         .run();
+ * System.out.println(result);
+ * </pre>
+ */
+public class SaturationSearch {
+
+    public enum Mode {
+        THREADS,
+        ARRIVAL_RATE
+    }
+
+    private final LoadTestExecutor executor;
+    private Mode mode = Mode.THREADS;
+    private double startLoad = 1;
+    private double maxLoad = 10_000;
+    private double p99Millis = 1000;
+    private double maxErrorRate = 0.01;
+    private int settleSeconds = 2; // samples right after a load change are not measured
+    private int stepSeconds = 10;
+    private double precision = 0.05; // stop when the bracket is within 5% of the knee
+    private double throughputTolerance = 0.05; // open model: achieved rate may be this much below the target
+
+    public SaturationSearch(LoadTestExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * THREADS searches over the number of virtual users, ARRIVAL_RATE over iterations per second
+     * (the executor's thread count is then the worker pool size and must be large enough).
+     */
+    public SaturationSearch setMode(Mode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    public SaturationSearch setStartLoad(double startLoad) {
+        this.startLoad = startLoad;
+        return this;
+    }
+
+    public SaturationSearch setMaxLoad(double maxLoad) {
+        this.maxLoad = maxLoad;
+        return this;
+    }
+
+    /**
+     * Highest acceptable 99th percentile latency in milliseconds.
+     */
+    public SaturationSearch setP99(double millis) {
+        this.p99Millis = millis;
+        return this;
+    }
+
+    /**
+     * Highest acceptable share of failed iterations, 0.01 is 1%.
+     */
+    public SaturationSearch setMaxErrorRate(double maxErrorRate) {
+        this.maxErrorRate = maxErrorRate;
+        return this;
+    }
+
+    public SaturationSearch setSettleTime(int seconds) {
+        this.settleSeconds = seconds;
+        return this;
+    }
+
+    public SaturationSearch setStepDuration(int seconds) {
+        this.stepSeconds = seconds;
+        return this;
+    }
+
+    /**
+     * In ARRIVAL_RATE mode a step only passes when the achieved throughput is within this share of the
+     * target rate, 0.05 by default. Arrivals the generator dropped also count as failed iterations.
+     */
+    public SaturationSearch setThroughputTolerance(double tolerance) {
+        this.throughputTolerance = tolerance;
+        return this;
+    }
+
+    /**
+     * Relative width of the final bracket, 0.05 stops once the last good and first bad load are within 5%.
+     */
+    public SaturationSearch setPrecision(double precision) {
+        this.precision = precision;
+        return this;
+    }
+
+    /**
+     * Starts the executor, runs the search and shuts the executor down. Blocks until done.
+     */
+    public Result run() throws InterruptedException {
+        List<Point> curve = new ArrayList<>();
+        executor.setIterations(-1).setTestDuration(0);
+        if (mode == Mode.ARRIVAL_RATE) {
+            executor.setArrivalRate(startLoad);
+        } else {
+            executor.setThreads((int) startLoad).setRampUp(0);
+        }
+        executor.start();
+
+        try {
+            Point good = null;
+            Point bad = null;
+
+            // Multiplicative increase until the SLO breaks
+            double load = startLoad;
+            while (true) {
+                Point point = measure(load);
+                curve.add(point);
+                if (!point.isWithinSlo()) {
+                    bad = point;
+                    break;
+                }
+                good = point;
+                if (load >= maxLoad) break;
+                load = Math.min(maxLoad, next(load * 2));
+            }
+
+            // Binary search between the last good and the first bad load
+            while (good != null && bad != null && bad.load - good.load > Math.max(minStep(), good.load * precision)) {
+                Point point = measure(round((good.load + bad.load) / 2));
+                curve.add(point);
+                if (point.isWithinSlo()) {
+                    good = point;
+                } else {
+                    bad = point;
+                }
+            }
+
+            curve.sort(Comparator.comparingDouble(Point::getLoad));
+            return new Result(good, Collections.unmodifiableList(curve));
+        } finally {
+            executor.shutdownService();
+        }
+    }
+
+    private Point measure(double load) throws InterruptedException {
+        applyLoad(load);
+        TimeUnit.SECONDS.sleep(settleSeconds);
+
+        HistogramSnapshot latencyBefore = executor.getLatencySnapshot();
+        long[] before = counts();
+        long droppedBefore = executor.getDroppedIterations();
+        long start = System.nanoTime();
+        TimeUnit.SECONDS.sleep(stepSeconds);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        HistogramSnapshot latency = executor.getLatencySnapshot().minus(latencyBefore);
+        long[] after = counts();
+        long dropped = executor.getDroppedIterations() - droppedBefore;
+
+        long iterations = after[0] - before[0];
+        long errors = after[1] - before[1];
+        double errorRate = iterations > 0 ? (double) errors / iterations : 0;
+        // Dropped arrivals never reach the histogram, so the surviving samples alone would look fine
+        double droppedRate = (iterations + dropped) > 0 ? (double) dropped / (iterations + dropped) : 0;
+        double failureRate = (iterations + dropped) > 0 ? (double) (errors + dropped) / (iterations + dropped) : 0;
+        double throughput = latency.getCount() / seconds;
+        double p99 = latency.getValueAtPercentile(99) / 1_000_000.0;
+        boolean withinSlo = latency.getCount() > 0 && p99 <= p99Millis && failureRate <= maxErrorRate
+                && (mode != Mode.ARRIVAL_RATE || throughput >= load * (1 - throughputTolerance));
+
+        Point point = new Point(load, throughput, p99, errorRate, droppedRate, withinSlo);
+        System.out.println("[search] " + point);
+        return point;
+    }
+
+    private void applyLoad(double load) {
+        if (mode == Mode.ARRIVAL_RATE) {
+            executor.changeArrivalRate(load);
+            return;
+        }
+        int difference = (int) load - executor.getActiveUsers();
+        if (difference > 0) {
+            executor.addNewThreads(difference);
+        } else if (difference < 0) {
+            executor.removeThreads(-difference);
+        }
+    }
+
+    // Iterations and errors over all scenarios
+    private long[] counts() {
+        long[] counts = new long[2];
+        for (ScenarioStats stats : executor.getScenarioStats()) {
+            counts[0] += stats.getIterations();
+            counts[1] += stats.getErrors();
+        }
+        return counts;
+    }
+
+    private double minStep() {
+        return mode == Mode.THREADS ? 1 : 0;
+    }
+
+    private double next(double load) {
+        return mode == Mode.THREADS ? Math.max(Math.floor(load), 1) : load;
+    }
+
+    private double round(double load) {
+        return mode == Mode.THREADS ? Math.floor(load) : load;
+    }
+
+    /**
+     * One measured step of the search.
+     */
+    public static class Point {
+        private final double load;
+        private final double throughput;
+        private final double p99Millis;
+        private final double errorRate;
+        private final double droppedRate;
+        private final boolean withinSlo;
+
+        Point(double load, double throughput, double p99Millis, double errorRate, double droppedRate, boolean withinSlo) {
+            this.load = load;
+            this.throughput = throughput;
+            this.p99Millis = p99Millis;
+            this.errorRate = errorRate;
+            this.droppedRate = droppedRate;
+            this.withinSlo = withinSlo;
+        }
+
+        public double getLoad() {
+            return load;
+        }
+
+        public double getThroughput() {
+            return throughput;
+        }
+
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        public double getErrorRate() {
+            return errorRate;
+        }
+
+        /**
+         * Share of arrivals the generator dropped (ARRIVAL_RATE mode), 0.01 is 1%.
+         */
+        public double getDroppedRate() {
+            return droppedRate;
+        }
+
+        public boolean isWithinSlo() {
+            return withinSlo;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("load=%.1f throughput=%.1f/s p99=%.2fms errors=%.2f%% dropped=%.2f%% %s",
+                    load, throughput, p99Millis, errorRate * 100, droppedRate * 100, withinSlo ? "ok" : "SLO violated");
+        }
+    }
+
+    /**
+     * The knee (highest load within the SLO, null if even the start load violated it)
+     * and every measured point ordered by load.
+     */
+    public static class Result {
+        private final Point knee;
+        private final List<Point> curve;
+
+        Result(Point knee, List<Point> curve) {
+            this.knee = knee;
+            this.curve = curve;
+        }
+
+        public Point getKnee() {
+            return knee;
+        }
+
+        public List<Point> getCurve() {
+            return curve;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder();
+            report.append("Knee: ").append(knee == null ? "none, the start load already violates the SLO" : knee).append('\n');
+            report.append(String.format("%10s %14s %10s %8s %8s%n", "load", "throughput/s", "p99 ms", "errors", "dropped"));
+            for (Point point : curve) {
+                report.append(String.format("%10.1f %14.1f %10.2f %7.2f%% %7.2f%%%s%n", point.load, point.throughput,
+                        point.p99Millis, point.errorRate * 100, point.droppedRate * 100, point == knee ? "  <- knee" : ""));
+            }
+            return report.toString();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.skd.loadcode;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * A single load test iteration. The executor running the test is passed in,
+ * so a scenario can be given directly as a lambda:
+ * <pre>
+ * new LoadTestExecutor().addTest(tgroup -&gt; client.get(url));
+ * </pre>
+ */
+@FunctionalInterface
+public interface Scenario<E> {
+
+    void run(E executor) throws Exception;
+
+    /**
+     * Binds a test method to its instance once, so each iteration is a plain interface call
+     * instead of {@link Method#invoke} (no argument array, no exception wrapping, inlinable by the JIT).
+     */
+    @SuppressWarnings("unchecked")
+    static <E> Scenario<E> bind(Object instance, Method method, Class<E> executorType) throws IllegalAccessException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle target = lookup.unreflect(method);
+        try {
+            CallSite site = LambdaMetafactory.metafactory(lookup, "run",
+                    MethodType.methodType(Scenario.class, method.getDeclaringClass()),
+                    MethodType.methodType(void.class, Object.class),
+                    target,
+                    MethodType.methodType(void.class, executorType));
+            return (Scenario<E>) site.getTarget().invoke(instance);
+        } catch (Throwable e) {
+            // The generated class cannot see the test class (e.g. another class loader), use the handle directly
+            MethodHandle bound = target.bindTo(instance).asType(MethodType.methodType(void.class, Object.class));
+            return executor -> {
+                try {
+                    bound.invokeExact((Object) executor);
+                } catch (Exception | Error failure) {
+                    throw failure;
+                } catch (Throwable failure) {
+                    throw new RuntimeException(failure);
+                }
+            };
+        }
+    }
+}
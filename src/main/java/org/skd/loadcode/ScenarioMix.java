@@ -0,0 +1,409 @@
+package org.skd.loadcode;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Weighted set of scenarios. Each iteration picks one in O(1) from a precomputed alias table
+ * (Vose's method) with a thread local random, so selection takes no locks.
+ * Synchronous and asynchronous scenarios can be mixed. Scenarios added from a class can be
+ * instantiated once per virtual user, so per-user state never needs locks.
+ */
+class ScenarioMix<E> {
+
+    static final class Entry<E> {
+        final int index;
+        final boolean isAsync;
+        final Binding<E> binding; // set for scenarios added from a class
+        final ScenarioStats stats;
+        // Exactly one of scenario and async is set, for a class once its shared instance is first needed
+        private volatile Scenario<E> scenario;
+        private volatile AsyncScenario<E> async;
+
+        Entry(int index, Scenario<E> scenario, AsyncScenario<E> async, Binding<E> binding, ScenarioStats stats) {
+            this.index = index;
+            this.isAsync = (binding != null) ? binding.isAsync() : async != null;
+            this.scenario = scenario;
+            this.async = async;
+            this.binding = binding;
+            this.stats = stats;
+        }
+
+        Scenario<E> scenario() throws ReflectiveOperationException {
+            if (scenario == null) {
+                bindShared();
+            }
+            return scenario;
+        }
+
+        AsyncScenario<E> async() throws ReflectiveOperationException {
+            if (async == null) {
+                bindShared();
+            }
+            return async;
+        }
+
+        /**
+         * Creates the instance shared by all users, so a class run with an instance per user never gets one.
+         */
+        private synchronized void bindShared() throws ReflectiveOperationException {
+            if (scenario != null || async != null) return;
+            Object instance = binding.newInstance();
+            if (isAsync) {
+                async = AsyncScenario.bind(instance, binding.method, binding.executorType);
+            } else {
+                scenario = Scenario.bind(instance, binding.method, binding.executorType);
+            }
+        }
+    }
+
+    /**
+     * A scenario class and method, kept so each virtual user can bind its own instance.
+     */
+    static final class Binding<E> {
+        final Class<?> type;
+        final Method method;
+        final Class<E> executorType;
+
+        Binding(Class<?> type, Method method, Class<E> executorType) {
+            this.type = type;
+            this.method = method;
+            this.executorType = executorType;
+        }
+
+        boolean isAsync() {
+            return CompletionStage.class.isAssignableFrom(method.getReturnType());
+        }
+
+        Object newInstance() throws ReflectiveOperationException {
+            return type.getDeclaredConstructor().newInstance();
+        }
+    }
+
+    /**
+     * Immutable alias table, replaced as a whole when a scenario is added.
+     */
+    private static final class Table<E> {
+        final Entry<E>[] entries;
+        final double[] probability;
+        final int[] alias;
+
+        Table(Entry<E>[] entries, double[] probability, int[] alias) {
+            this.entries = entries;
+            this.probability = probability;
+            this.alias = alias;
+        }
+    }
+
+    private final List<Entry<E>> entries = new ArrayList<>();
+    private volatile Table<E> table;
+    private volatile boolean hasAsync = false;
+    private volatile SampleJournal journal; // optional raw sample log, scenario ids are entry indexes
+    private volatile boolean instancePerUser = false;
+    private volatile ErrorPolicy errorPolicy = new ErrorPolicy();
+
+    void add(String name, Scenario<E> scenario, double weight) {
+        add(name, scenario, null, null, weight);
+    }
+
+    void addAsync(String name, AsyncScenario<E> async, double weight) {
+        add(name, null, async, null, weight);
+    }
+
+    /**
+     * Adds a test method of a class. The shared instance is created on first use unless instances are per user.
+     */
+    void add(String name, Binding<E> binding, double weight) throws ReflectiveOperationException {
+        binding.type.getDeclaredConstructor(); // fails here rather than in the first iteration
+        add(name, null, null, binding, weight);
+    }
+
+    private synchronized void add(String name, Scenario<E> scenario, AsyncScenario<E> async, Binding<E> binding, double weight) {
+        if (!(weight > 0)) {
+            throw new IllegalArgumentException("Scenario weight must be greater than 0.");
+        }
+        Entry<E> entry = new Entry<>(entries.size(), scenario, async, binding, new ScenarioStats(name, weight));
+        entries.add(entry);
+        hasAsync |= entry.isAsync;
+        table = build(entries);
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        table = null;
+        hasAsync = false;
+    }
+
+    boolean hasAsync() {
+        return hasAsync;
+    }
+
+    void setJournal(SampleJournal journal) {
+        this.journal = journal;
+    }
+
+    void setErrorPolicy(ErrorPolicy errorPolicy) {
+        this.errorPolicy = errorPolicy;
+    }
+
+    void setInstancePerUser(boolean instancePerUser) {
+        this.instancePerUser = instancePerUser;
+    }
+
+    boolean isInstancePerUser() {
+        return instancePerUser;
+    }
+
+    boolean isEmpty() {
+        return table == null;
+    }
+
+    int size() {
+        Table<E> current = table;
+        return current == null ? 0 : current.entries.length;
+    }
+
+    Entry<E> next() {
+        Table<E> current = table;
+        if (current == null) {
+            throw new IllegalStateException("No scenario added, call addTest or addScenario first.");
+        }
+        Entry<E>[] choices = current.entries;
+        if (choices.length == 1) return choices[0];
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int column = random.nextInt(choices.length);
+        return random.nextDouble() < current.probability[column] ? choices[column] : choices[current.alias[column]];
+    }
+
+    List<ScenarioStats> stats() {
+        Table<E> current = table;
+        if (current == null) return Collections.emptyList();
+        List<ScenarioStats> stats = new ArrayList<>(current.entries.length);
+        for (Entry<E> entry : current.entries) {
+            stats.add(entry.stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Latency of all scenarios merged.
+     */
+    HistogramSnapshot snapshot() {
+        HistogramSnapshot merged = HistogramSnapshot.empty();
+        for (ScenarioStats stats : stats()) {
+            merged = merged.merge(stats.getLatencySnapshot());
+        }
+        return merged;
+    }
+
+    /**
+     * Clears the counters and latency of every scenario. Only while no iteration is running.
+     */
+    void reset() {
+        for (ScenarioStats stats : stats()) {
+            stats.reset();
+        }
+    }
+
+    /**
+     * An asynchronous iteration in flight. Cancelling the scenario's own stage also cancels the request
+     * behind it; the recorded stage completes once latency and outcome have been recorded.
+     */
+    static final class Pending {
+        final CompletableFuture<?> scenario;
+        final CompletableFuture<?> recorded;
+
+        Pending(CompletableFuture<?> scenario, CompletableFuture<?> recorded) {
+            this.scenario = scenario;
+            this.recorded = recorded;
+        }
+    }
+
+    User user(int slot) {
+        return new User(slot);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> Table<E> build(List<Entry<E>> entries) {
+        int n = entries.size();
+        double total = 0;
+        for (Entry<E> entry : entries) {
+            total += entry.stats.getWeight();
+        }
+
+        double[] scaled = new double[n];
+        Deque<Integer> small = new ArrayDeque<>();
+        Deque<Integer> large = new ArrayDeque<>();
+        for (int i = 0; i < n; i++) {
+            scaled[i] = entries.get(i).stats.getWeight() * n / total;
+            (scaled[i] < 1 ? small : large).push(i);
+        }
+
+        double[] probability = new double[n];
+        int[] alias = new int[n];
+        while (!small.isEmpty() && !large.isEmpty()) {
+            int less = small.pop();
+            int more = large.pop();
+            probability[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1;
+            (scaled[more] < 1 ? small : large).push(more);
+        }
+        // Whatever is left is 1 up to rounding
+        for (int i : large) probability[i] = 1;
+        for (int i : small) probability[i] = 1;
+
+        return new Table<>(entries.toArray((Entry<E>[]) new Entry<?>[0]), probability, alias);
+    }
+
+    /**
+     * One virtual user's view of the mix, holding that user's histogram for each scenario
+     * so samples are never recorded into a histogram shared with another user.
+     */
+    final class User {
+        private final int slot;
+        private LatencyHistogram[] histograms = new LatencyHistogram[0];
+        private boolean opened = false;
+        // This user's own scenario instances, indexed like the entries; empty unless instances are per user
+        private Object[] instances = new Object[0];
+        private Scenario<E>[] scenarios;
+        private AsyncScenario<E>[] asyncs;
+
+        User(int slot) {
+            this.slot = slot;
+        }
+
+        /**
+         * Creates this user's scenario instances and runs their {@link UserLifecycle#setup} hooks,
+         * before the first iteration and outside its timing. Does nothing after the first call.
+         */
+        @SuppressWarnings("unchecked")
+        void open(E executor) throws Exception {
+            if (opened || !instancePerUser) return;
+            opened = true;
+            Table<E> current = table;
+            if (current == null) return;
+            Entry<E>[] choices = current.entries;
+            instances = new Object[choices.length];
+            scenarios = (Scenario<E>[]) new Scenario<?>[choices.length];
+            asyncs = (AsyncScenario<E>[]) new AsyncScenario<?>[choices.length];
+            for (Entry<E> entry : choices) {
+                Binding<E> binding = entry.binding;
+                if (binding == null) continue; // lambdas are shared
+                Object instance = binding.newInstance();
+                if (binding.isAsync()) {
+                    asyncs[entry.index] = AsyncScenario.bind(instance, binding.method, binding.executorType);
+                } else {
+                    scenarios[entry.index] = Scenario.bind(instance, binding.method, binding.executorType);
+                }
+                instances[entry.index] = instance;
+                if (instance instanceof UserLifecycle) {
+                    ((UserLifecycle<E>) instance).setup(executor);
+                }
+            }
+        }
+
+        /**
+         * Runs the {@link UserLifecycle#teardown} hooks of the instances this user set up.
+         * Failures are printed so every instance gets its teardown.
+         */
+        @SuppressWarnings("unchecked")
+        void close(E executor) {
+            for (int i = 0; i < instances.length; i++) {
+                Object instance = instances[i];
+                instances[i] = null;
+                if (instance instanceof UserLifecycle) {
+                    try {
+                        ((UserLifecycle<E>) instance).teardown(executor);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Runs the next scenario of the mix, counting it and recording its latency from startNanos.
+         * Errors are counted against the scenario and its exception type, reported to the error policy and rethrown.
+         * An asynchronous scenario is only started and returned as {@link Pending}, latency and errors
+         * are recorded when it completes. Returns null when the iteration already completed.
+         */
+        Pending run(E executor, long startNanos) throws Exception {
+            Entry<E> entry = next();
+            LatencyHistogram histogram = histogram(entry);
+            entry.stats.iterationCounter().increment();
+            CompletionStage<?> pending = null;
+            try {
+                if (!entry.isAsync) {
+                    scenario(entry).run(executor);
+                } else {
+                    pending = async(entry).run(executor);
+                }
+            } catch (Exception | Error e) {
+                complete(entry, histogram, startNanos, SampleJournal.STATUS_ERROR);
+                failed(entry, e);
+                throw e;
+            }
+            if (pending == null) {
+                complete(entry, histogram, startNanos, SampleJournal.STATUS_OK);
+                errorPolicy.onSuccess();
+                return null;
+            }
+            // Histograms are atomic, so recording from the completing thread is safe
+            CompletableFuture<?> scenario = pending.toCompletableFuture();
+            return new Pending(scenario, scenario.whenComplete((result, failure) -> {
+                complete(entry, histogram, startNanos, failure == null ? SampleJournal.STATUS_OK : SampleJournal.STATUS_ERROR);
+                if (failure == null) {
+                    errorPolicy.onSuccess();
+                } else {
+                    failed(entry, failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure);
+                }
+            }));
+        }
+
+        private void failed(Entry<E> entry, Throwable error) {
+            errorPolicy.onError(entry.stats.getName(), error, entry.stats.recordError(error));
+        }
+
+        private Scenario<E> scenario(Entry<E> entry) throws ReflectiveOperationException {
+            Scenario<E> own = entry.index < instances.length ? scenarios[entry.index] : null;
+            return own != null ? own : entry.scenario();
+        }
+
+        private AsyncScenario<E> async(Entry<E> entry) throws ReflectiveOperationException {
+            AsyncScenario<E> own = entry.index < instances.length ? asyncs[entry.index] : null;
+            return own != null ? own : entry.async();
+        }
+
+        private void complete(Entry<E> entry, LatencyHistogram histogram, long startNanos, int status) {
+            long duration = System.nanoTime() - startNanos;
+            histogram.record(duration);
+            SampleJournal sampleJournal = journal;
+            if (sampleJournal != null) {
+                sampleJournal.record(entry.index, startNanos, duration, status);
+            }
+        }
+
+        private LatencyHistogram histogram(Entry<E> entry) {
+            if (entry.index >= histograms.length) {
+                histograms = Arrays.copyOf(histograms, Math.max(entry.index + 1, size()));
+            }
+            LatencyHistogram histogram = histograms[entry.index];
+            if (histogram == null) {
+                histogram = entry.stats.latencyRecorder().histogram(slot);
+                histograms[entry.index] = histogram;
+            }
+            return histogram;
+        }
+    }
+}
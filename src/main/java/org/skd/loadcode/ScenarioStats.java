@@ -0,0 +1,111 @@
+package org.skd.loadcode;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Iteration count, error counts by exception type and latency of one scenario in a workload mix.
+ */
+public class ScenarioStats {
+    private final String name;
+    private final double weight;
+    private final LongAdder iterations = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final Map<Class<?>, ErrorCount> errorTypes = new ConcurrentHashMap<>();
+    private final LatencyRecorder latencyRecorder = new LatencyRecorder();
+
+    ScenarioStats(String name, double weight) {
+        this.name = name;
+        this.weight = weight;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getWeight() {
+        return weight;
+    }
+
+    public long getIterations() {
+        return iterations.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * Errors by exception class name, most frequent first.
+     */
+    public Map<String, Long> getErrorsByType() {
+        List<Map.Entry<Class<?>, ErrorCount>> types = new ArrayList<>(errorTypes.entrySet());
+        types.sort((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()));
+        Map<String, Long> byType = new LinkedHashMap<>();
+        for (Map.Entry<Class<?>, ErrorCount> type : types) {
+            byType.put(type.getKey().getName(), type.getValue().sum());
+        }
+        return byType;
+    }
+
+    public HistogramSnapshot getLatencySnapshot() {
+        return latencyRecorder.snapshot();
+    }
+
+    public String summary() {
+        return String.format("%s iterations=%d errors=%d %s", name, getIterations(), getErrors(), getLatencySnapshot().summary());
+    }
+
+    LongAdder iterationCounter() {
+        return iterations;
+    }
+
+    /**
+     * Counts a failed iteration and returns the counter of its exception type.
+     */
+    ErrorCount recordError(Throwable error) {
+        errors.increment();
+        ErrorCount count = errorTypes.get(error.getClass());
+        if (count == null) {
+            count = errorTypes.computeIfAbsent(error.getClass(), type -> new ErrorCount());
+        }
+        count.increment();
+        return count;
+    }
+
+    /**
+     * Failures of one exception type, with the stack trace sampling state of {@link ErrorPolicy}.
+     */
+    static final class ErrorCount {
+        private final LongAdder count = new LongAdder();
+        final AtomicLong nextTrace = new AtomicLong(Long.MIN_VALUE); // nanoTime of the next trace, MIN_VALUE before the first
+        long tracedAt = 0; // count when the last trace was printed, written by the printing thread only
+
+        void increment() {
+            count.increment();
+        }
+
+        long sum() {
+            return count.sum();
+        }
+    }
+
+    /**
+     * Starts the counts over, e.g. after the warm-up. Only while no iteration of the scenario is running.
+     */
+    void reset() {
+        iterations.reset();
+        errors.reset();
+        errorTypes.clear();
+        latencyRecorder.reset();
+    }
+
+    LatencyRecorder latencyRecorder() {
+        return latencyRecorder;
+    }
+}
@@ -0,0 +1,49 @@
+package org.skd.loadcode;
+
+/**
+ * Throughput and latency measured during one stage of a {@link LoadProfile}.
+ */
+public class StageReport {
+    private final int stage;
+    private final String label;
+    private final double seconds;
+    private final int endUsers;
+    private final HistogramSnapshot latency;
+
+    StageReport(int stage, String label, double seconds, int endUsers, HistogramSnapshot latency) {
+        this.stage = stage;
+        this.label = label;
+        this.seconds = seconds;
+        this.endUsers = endUsers;
+        this.latency = latency;
+    }
+
+    public int getStage() {
+        return stage;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public double getSeconds() {
+        return seconds;
+    }
+
+    public int getEndUsers() {
+        return endUsers;
+    }
+
+    public double getThroughput() {
+        return seconds > 0 ? latency.getCount() / seconds : 0;
+    }
+
+    public HistogramSnapshot getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[stage %d %s] users=%d throughput=%.1f/s %s", stage + 1, label, endUsers, getThroughput(), latency.summary());
+    }
+}
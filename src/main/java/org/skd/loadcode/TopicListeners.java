@@ -0,0 +1,35 @@
+package org.skd.loadcode;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Per-topic callbacks fired when messages become available, used to wake up idle consumers
+ * instead of having them poll.
+ */
+class TopicListeners {
+    private final Map<String, List<Runnable>> listeners = new ConcurrentHashMap<>();
+
+    void add(String topic, Runnable listener) {
+        listeners.computeIfAbsent(topic, t -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    void remove(String topic, Runnable listener) {
+        List<Runnable> topicListeners = listeners.get(topic);
+        if (topicListeners != null) {
+            topicListeners.remove(listener);
+        }
+    }
+
+    void fire(String topic) {
+        if (listeners.isEmpty()) return;
+        List<Runnable> topicListeners = listeners.get(topic);
+        if (topicListeners != null) {
+            for (Runnable listener : topicListeners) {
+                listener.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.skd.loadcode;
+
+/**
+ * Optional hooks for a scenario class run with one instance per virtual user
+ * ({@link LoadTestExecutor#setInstancePerUser}). Both run on the user's own thread
+ * outside the measured window, e.g. to log in once and keep the token in a plain field:
+ * <pre>
+ * public class Checkout implements UserLifecycle&lt;LoadTestExecutor&gt; {
+ *     private String token;
+ *     public void setup(LoadTestExecutor tgroup) { token = login(); }
+ *     public void testScenario(LoadTestExecutor tgroup) { client.get(url, token); }
+ * }
+ * </pre>
+ */
+public interface UserLifecycle<E> {
+
+    /**
+     * Called before the user's first iteration. Users starting during ramp-up set up in parallel.
+     */
+    default void setup(E executor) throws Exception {
+    }
+
+    /**
+     * Called after the user's last iteration, including when the user is retired or the test stops.
+     */
+    default void teardown(E executor) throws Exception {
+    }
+}
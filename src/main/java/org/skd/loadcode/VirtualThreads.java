@@ -0,0 +1,48 @@
+package org.skd.loadcode;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads (Java 21+) without requiring them at compile time,
+ * so the library still runs on Java 8 and falls back to platform threads.
+ */
+public final class VirtualThreads {
+    private static final Method OF_VIRTUAL = lookup();
+
+    private VirtualThreads() {
+    }
+
+    private static Method lookup() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            ofVirtual.invoke(null); // preview builds throw here unless --enable-preview is set
+            return ofVirtual;
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Factory creating virtual threads named prefix0, prefix1, ... or platform threads
+     * from the default factory when the running JVM has no virtual threads.
+     */
+    public static ThreadFactory factory(String prefix) {
+        if (OF_VIRTUAL == null) {
+            return Executors.defaultThreadFactory();
+        }
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to create virtual thread factory", e);
+        }
+    }
+}
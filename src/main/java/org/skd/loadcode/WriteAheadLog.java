@@ -0,0 +1,239 @@
+package org.skd.loadcode;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only, memory-mapped log of queue inserts and removals, replayed on startup so an
+ * {@link InMemoryMessageQueue} can resume after a crash. Writers reserve space with one
+ * atomic add and copy their record into the mapped segment without locking; only rolling
+ * over to a new segment is synchronized. Records survive a process crash once written
+ * (the page cache holds them), {@link #flush()} forces them to disk.
+ *
+ * Record layout: int length, byte op, long id, short topic length, topic bytes, data bytes.
+ * The length is written first and the op last, so a record whose writer died half way has op 0
+ * and is skipped on replay. Only a slot whose writer died between reserving it and writing its
+ * length reads as the end of the segment.
+ *
+ * Segments accumulate until the owner runs a checkpoint: {@link #startCheckpoint()}, rewrite
+ * the live state, {@link #finishCheckpoint(int)}, which deletes the segments before it.
+ */
+class WriteAheadLog implements AutoCloseable {
+    static final byte INSERT = 1;
+    static final byte REMOVE = 2;
+
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int CHECKPOINT_SEGMENTS = 4; // segments written between two checkpoints, at least
+    private static final int HEADER = 4 + 1 + 8 + 2;
+
+    interface Replay {
+        void apply(byte op, String topic, long id, String data);
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private volatile Segment segment;
+    private volatile int segmentNumber;
+    private final List<Segment> written = new ArrayList<>(); // mapped since the last checkpoint, guarded by this
+    private volatile int checkpointEnd; // last segment of the last checkpoint
+    private volatile int checkpointSegments = 1; // segments the last checkpoint's rewrite took
+
+    WriteAheadLog(Path directory) throws IOException {
+        this(directory, SEGMENT_SIZE);
+    }
+
+    WriteAheadLog(Path directory, int segmentSize) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Replays all existing segments in order. Call once before appending.
+     */
+    void replay(Replay replay) throws IOException {
+        for (Path file : segmentFiles()) {
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r");
+                 FileChannel channel = raf.getChannel()) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                while (buffer.remaining() >= HEADER) {
+                    int start = buffer.position();
+                    int length = buffer.getInt(start);
+                    if (length < HEADER || length > buffer.remaining()) break; // end of the written part
+                    buffer.position(start + length);
+                    byte op = buffer.get(start + 4);
+                    if (op == 0) continue; // torn record, its writer died before committing it
+                    long id = buffer.getLong(start + 5);
+                    int topicLength = buffer.getShort(start + 13);
+                    byte[] topic = new byte[topicLength];
+                    byte[] data = new byte[length - HEADER - topicLength];
+                    ByteBuffer record = buffer.duplicate();
+                    record.position(start + HEADER);
+                    record.get(topic).get(data);
+                    replay.apply(op, new String(topic, StandardCharsets.UTF_8), id, new String(data, StandardCharsets.UTF_8));
+                }
+            }
+            segmentNumber = Math.max(segmentNumber, number(file));
+        }
+        checkpointEnd = segmentNumber;
+    }
+
+    void append(byte op, String topic, long id, String data) {
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        byte[] dataBytes = data == null ? new byte[0] : data.getBytes(StandardCharsets.UTF_8);
+        int length = HEADER + topicBytes.length + dataBytes.length;
+        if (length > segmentSize) {
+            throw new IllegalArgumentException("Message too large for the write-ahead log: " + length + " bytes");
+        }
+
+        while (true) {
+            Segment current = segment;
+            if (current == null) {
+                current = roll(null);
+            }
+            current.writers.incrementAndGet();
+            try {
+                if (current != segment) continue; // rolled over, a checkpoint may already be deleting it
+                long position = current.reserved.getAndAdd(length);
+                if (position + length <= segmentSize) {
+                    current.buffer.putInt((int) position, length);
+                    ByteBuffer buffer = current.buffer.duplicate();
+                    buffer.position((int) position + 5);
+                    buffer.putLong(id).putShort((short) topicBytes.length).put(topicBytes).put(dataBytes);
+                    current.buffer.put((int) position + 4, op); // commit the record last
+                    return;
+                }
+            } finally {
+                current.writers.decrementAndGet();
+            }
+            roll(current);
+        }
+    }
+
+    /**
+     * Opens the next segment unless another writer already replaced the full one.
+     */
+    private synchronized Segment roll(Segment full) {
+        if (segment != full) {
+            return segment;
+        }
+        try {
+            Segment next = new Segment(directory.resolve(String.format("queue-%06d.wal", segmentNumber + 1)), segmentSize);
+            written.add(next);
+            segmentNumber++;
+            segment = next;
+            return next;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * True once more segments were written since the last checkpoint than it took to rewrite the live state,
+     * so the log stays within about twice the live state plus a few segments.
+     */
+    boolean needsCheckpoint() {
+        return segmentNumber - checkpointEnd >= Math.max(CHECKPOINT_SEGMENTS, checkpointSegments);
+    }
+
+    /**
+     * Rolls over to a new segment and waits until no writer is left in an older one.
+     * Everything appended from here on is kept; returns the number of that first segment.
+     */
+    int startCheckpoint() {
+        Segment first;
+        List<Segment> older;
+        synchronized (this) {
+            first = roll(segment);
+            older = new ArrayList<>(written);
+            older.remove(first);
+        }
+        for (Segment previous : older) {
+            while (previous.writers.get() > 0) {
+                Thread.yield();
+            }
+        }
+        return first.number;
+    }
+
+    /**
+     * Forces the segments written since {@link #startCheckpoint()} and deletes the ones before it.
+     */
+    void finishCheckpoint(int first) throws IOException {
+        synchronized (this) {
+            written.removeIf(previous -> previous.number < first);
+        }
+        flush();
+        for (Path file : segmentFiles()) {
+            if (number(file) < first) {
+                // Truncate first: a deleted file keeps its blocks until the GC unmaps its buffer
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(0);
+                }
+                Files.delete(file);
+            }
+        }
+        int end = segmentNumber;
+        checkpointSegments = end - first + 1;
+        checkpointEnd = end;
+    }
+
+    void flush() {
+        List<Segment> segments;
+        synchronized (this) {
+            segments = new ArrayList<>(written);
+        }
+        for (Segment current : segments) {
+            current.buffer.force();
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "queue-*.wal")) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files); // zero padded numbers sort in order
+        return files;
+    }
+
+    private static int number(Path file) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring("queue-".length(), name.length() - ".wal".length()));
+    }
+
+    private static final class Segment {
+        private final int number;
+        private final MappedByteBuffer buffer;
+        private final AtomicLong reserved = new AtomicLong();
+        private final AtomicInteger writers = new AtomicInteger(); // appends in progress, a checkpoint waits for 0
+
+        Segment(Path file, int size) throws IOException {
+            this.number = number(file);
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw");
+                 FileChannel channel = raf.getChannel()) {
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size); // grows the file, zero filled
+            }
+        }
+    }
+}
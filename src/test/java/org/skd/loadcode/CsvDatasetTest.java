@@ -0,0 +1,108 @@
+package org.skd.loadcode;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CsvDatasetTest {
+    private static final int ROWS = 1000;
+
+    /**
+     * 2 threads over 16 slices without loop: together they must read every row exactly once
+     * before the dataset reports its end, not just the 2 slices they start on.
+     */
+    @Test
+    @Timeout(30)
+    void partitionedReadsEverySliceWithFewerThreadsThanSlices() throws Exception {
+        File file = csv(ROWS);
+        try {
+            for (CsvDataset.Storage storage : CsvDataset.Storage.values()) {
+                CsvDataset dataset = new CsvDataset(file.getPath(), 3, false, false, ",", storage)
+                        .setDistribution(CsvDataset.Distribution.PARTITIONED)
+                        .setPartitions(16);
+                Map<String, AtomicInteger> reads = new ConcurrentHashMap<>();
+                runThreads(2, () -> {
+                    List<Map<String, String>> batch;
+                    while (!(batch = dataset.getNextBatch()).isEmpty()) {
+                        count(reads, batch);
+                    }
+                });
+
+                assertEquals(ROWS, reads.size(), storage + " rows read");
+                for (AtomicInteger times : reads.values()) {
+                    assertEquals(1, times.get(), storage + " reads per row");
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * 2 threads over 16 slices with loop: after two passes' worth of rows every row has been read,
+     * and none more than three times.
+     */
+    @Test
+    @Timeout(30)
+    void partitionedLoopCoversEverySliceWithFewerThreadsThanSlices() throws Exception {
+        File file = csv(ROWS);
+        try {
+            CsvDataset dataset = new CsvDataset(file.getPath(), 1, true, false, ",", CsvDataset.Storage.PACKED)
+                    .setDistribution(CsvDataset.Distribution.PARTITIONED)
+                    .setPartitions(16);
+            Map<String, AtomicInteger> reads = new ConcurrentHashMap<>();
+            AtomicInteger remaining = new AtomicInteger(2 * ROWS);
+            runThreads(2, () -> {
+                while (remaining.getAndDecrement() > 0) {
+                    count(reads, dataset.getNextBatch());
+                }
+            });
+
+            assertEquals(ROWS, reads.size(), "rows read");
+            for (AtomicInteger times : reads.values()) {
+                assertEquals(2, times.get(), 1, "reads per row");
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void count(Map<String, AtomicInteger> reads, List<Map<String, String>> batch) {
+        for (Map<String, String> row : batch) {
+            reads.computeIfAbsent(row.get("id"), id -> new AtomicInteger()).incrementAndGet();
+        }
+    }
+
+    private static void runThreads(int threads, Runnable body) throws InterruptedException {
+        List<Thread> started = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(body);
+            thread.start();
+            started.add(thread);
+        }
+        for (Thread thread : started) {
+            thread.join();
+        }
+    }
+
+    private static File csv(int rows) throws IOException {
+        File file = File.createTempFile("loadcode-dataset", ".csv");
+        try (PrintWriter writer = new PrintWriter(file)) {
+            writer.println("id,username");
+            for (int i = 0; i < rows; i++) {
+                writer.println(i + ",user" + i);
+            }
+        }
+        return file;
+    }
+}
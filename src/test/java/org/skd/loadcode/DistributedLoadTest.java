@@ -0,0 +1,128 @@
+package org.skd.loadcode;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs a coordinator in this JVM against worker JVMs forked on localhost with {@link DistributedWorker#main}.
+ */
+class DistributedLoadTest {
+
+    /**
+     * Scenario of the worker JVMs. Every fifth call in a JVM fails, so errors have to be merged too.
+     */
+    public static class CountingScenario {
+        private static final AtomicInteger calls = new AtomicInteger();
+
+        public void testScenario(LoadTestExecutor executor) {
+            if (calls.incrementAndGet() % 5 == 0) {
+                throw new IllegalStateException("every fifth call fails");
+            }
+        }
+    }
+
+    /**
+     * 2 workers with 2 users each and 50 iterations per user: the merged result must hold all 200 iterations,
+     * their 40 errors and 200 latency samples.
+     */
+    @Test
+    @Timeout(60)
+    void mergesTheSnapshotsOfAllWorkerJvms() throws Exception {
+        DistributedCoordinator coordinator = new DistributedCoordinator(0, 2)
+                .setThreads(4)
+                .setIterations(50)
+                .setStartDelay(500);
+        List<Process> workers = new ArrayList<>();
+        try {
+            CompletableFuture<HistogramSnapshot> completion = startWorkers(coordinator, workers, 2);
+            HistogramSnapshot merged = completion.get(30, TimeUnit.SECONDS);
+
+            assertEquals(200, coordinator.getTotalIterations(), "merged iterations");
+            assertEquals(40, coordinator.getTotalErrors(), "merged errors");
+            assertEquals(200, merged.getCount(), "merged latency samples");
+            for (Process worker : workers) {
+                assertTrue(worker.waitFor(10, TimeUnit.SECONDS), "worker exited");
+                assertEquals(0, worker.exitValue(), "worker exit code");
+            }
+        } finally {
+            for (Process worker : workers) {
+                worker.destroyForcibly();
+            }
+            coordinator.close();
+        }
+    }
+
+    /**
+     * After one of 2 workers dies, a new total arrival rate must go to the surviving worker in full,
+     * not be halved as if the lost worker were still running its share.
+     */
+    @Test
+    @Timeout(60)
+    void changedArrivalRateGoesToTheWorkersStillRunning() throws Exception {
+        DistributedCoordinator coordinator = new DistributedCoordinator(0, 2)
+                .setThreads(4)
+                .setIterations(-1)
+                .setTestDuration(12)
+                .setArrivalRate(40)
+                .setStartDelay(500);
+        List<Process> workers = new ArrayList<>();
+        try {
+            CompletableFuture<HistogramSnapshot> completion = startWorkers(coordinator, workers, 2);
+            Thread.sleep(2000);
+            workers.get(1).destroyForcibly().waitFor();
+            Thread.sleep(500); // the coordinator sees the closed connection
+            coordinator.changeArrivalRate(40);
+
+            Thread.sleep(1500); // a snapshot at the new rate
+            long before = coordinator.getTotalIterations();
+            Thread.sleep(5000);
+            double rate = (coordinator.getTotalIterations() - before) / 5.0;
+            assertTrue(rate > 32 && rate < 48, "rate of the surviving worker was " + rate + "/s, expected 40/s");
+
+            completion.get(30, TimeUnit.SECONDS);
+        } finally {
+            for (Process worker : workers) {
+                worker.destroyForcibly();
+            }
+            coordinator.close();
+        }
+    }
+
+    /**
+     * Starts the coordinator, which blocks until every worker has connected, then forks the worker JVMs.
+     */
+    private static CompletableFuture<HistogramSnapshot> startWorkers(DistributedCoordinator coordinator,
+                                                                     List<Process> workers, int count) throws Exception {
+        CompletableFuture<CompletableFuture<HistogramSnapshot>> started = CompletableFuture.supplyAsync(() -> {
+            try {
+                return coordinator.start();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        while (coordinator.getPort() == 0) {
+            Thread.sleep(10); // port 0 is bound to a free port once the coordinator listens
+        }
+        String port = String.valueOf(coordinator.getPort());
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        for (int i = 0; i < count; i++) {
+            workers.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    DistributedWorker.class.getName(), "localhost", port, CountingScenario.class.getName())
+                    .inheritIO()
+                    .start());
+        }
+        return started.get(30, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,49 @@
+package org.skd.loadcode;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RateLimiterTest {
+
+    /**
+     * 120,000 permits per minute shared by 500 threads must come out within 1% over a 5 second window.
+     * Counting starts once every thread is running, so thread start-up does not skew the rate.
+     */
+    @Test
+    @Timeout(30)
+    void holdsRateWithinOnePercentAcross500Threads() throws InterruptedException {
+        double perMinute = 120_000;
+        int threads = 500;
+        RateLimiter limiter = RateLimiter.perMinute(perMinute);
+        LongAdder permits = new LongAdder();
+        long windowStart = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        long windowEnd = windowStart + TimeUnit.SECONDS.toNanos(5);
+
+        List<Thread> workers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                while (true) {
+                    limiter.acquire();
+                    long now = System.nanoTime();
+                    if (now >= windowEnd) break;
+                    if (now >= windowStart) permits.increment();
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        double achieved = permits.sum() / 5.0 * 60;
+        assertEquals(perMinute, achieved, perMinute * 0.01, "permits per minute");
+    }
+}